@@ -0,0 +1,332 @@
+/*******************************************************************************
+ * Copyright (c) 2007-2026 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish;
+
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.URISyntaxException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+import com.maxprograms.swordfish.tm.ITmEngine;
+
+/**
+ * Open engines of memories or glossaries. Engines are counted while in use
+ * and stay open when released, so that the next request doesn't have to open
+ * the SQLite and MapDB files again. Released engines are closed after the
+ * number of seconds in the "engineIdleTime" preference, or the least
+ * recently used first when more than "maxOpenEngines" engines are open.
+ */
+public class EnginePool {
+
+	private static Logger logger = System.getLogger(EnginePool.class.getName());
+
+	private static final int DEFAULT_IDLE_TIME = 300;
+	private static final int DEFAULT_MAX_ENGINES = 16;
+
+	private static ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "engine-pool");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	public interface EngineFactory {
+		ITmEngine open(String id) throws IOException, SQLException, URISyntaxException;
+	}
+
+	private static class PooledEngine {
+		// completed when the engine is open; opening and closing happen outside
+		// the monitor of the pool, so that a slow engine doesn't block the others
+		CompletableFuture<ITmEngine> opening = new CompletableFuture<>();
+		ITmEngine engine;
+		int references;
+		long lastUsed;
+	}
+
+	private String name;
+	private EngineFactory factory;
+	// in access order, least recently used first
+	private Map<String, PooledEngine> engines;
+	// engines removed from the map that are still being closed
+	private Map<String, CompletableFuture<Void>> closing;
+	private long opened;
+	private long hits;
+	private long evicted;
+
+	public EnginePool(String name, EngineFactory factory) {
+		this.name = name;
+		this.factory = factory;
+		engines = new LinkedHashMap<>(16, 0.75f, true);
+		closing = new HashMap<>();
+		sweeper.scheduleWithFixedDelay(this::closeIdle, 30, 30, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Returns the engine of a memory or glossary, opening it if needed. Each
+	 * call must be matched by a call to {@link #release(String)}.
+	 */
+	public ITmEngine acquire(String id) throws IOException, SQLException, URISyntaxException {
+		PooledEngine pooled = null;
+		boolean opener = false;
+		while (pooled == null) {
+			CompletableFuture<Void> closed;
+			synchronized (this) {
+				closed = closing.get(id);
+				if (closed == null) {
+					pooled = engines.get(id);
+					if (pooled != null) {
+						hits++;
+					} else {
+						pooled = new PooledEngine();
+						engines.put(id, pooled);
+						opened++;
+						opener = true;
+					}
+					pooled.references++;
+				}
+			}
+			if (closed != null) {
+				// the files of the engine can't be opened again until they are closed
+				await(closed);
+			}
+		}
+		if (!opener) {
+			return await(pooled.opening);
+		}
+		ITmEngine engine;
+		try {
+			engine = factory.open(id);
+		} catch (IOException | SQLException | URISyntaxException | RuntimeException e) {
+			synchronized (this) {
+				engines.remove(id, pooled);
+			}
+			pooled.opening.completeExceptionally(e);
+			throw e;
+		}
+		synchronized (this) {
+			pooled.engine = engine;
+		}
+		pooled.opening.complete(engine);
+		closeOverBudget();
+		return engine;
+	}
+
+	/**
+	 * Returns the engine if it is open, or null.
+	 */
+	public ITmEngine get(String id) throws IOException, SQLException, URISyntaxException {
+		PooledEngine pooled;
+		synchronized (this) {
+			pooled = engines.get(id);
+		}
+		return pooled != null ? await(pooled.opening) : null;
+	}
+
+	/**
+	 * Returns true if the engine is open and has not been released by all the
+	 * requests that acquired it.
+	 */
+	public synchronized boolean isInUse(String id) {
+		PooledEngine pooled = engines.get(id);
+		return pooled != null && pooled.references > 0;
+	}
+
+	/**
+	 * Returns true if the engine is open, without opening it.
+	 */
+	public synchronized boolean isOpen(String id) {
+		PooledEngine pooled = engines.get(id);
+		return pooled != null && pooled.engine != null;
+	}
+
+	public void release(String id) throws IOException, SQLException, URISyntaxException {
+		synchronized (this) {
+			PooledEngine pooled = engines.get(id);
+			if (pooled == null) {
+				return;
+			}
+			if (pooled.references > 0) {
+				pooled.references--;
+			}
+			pooled.lastUsed = System.currentTimeMillis();
+		}
+		closeOverBudget();
+	}
+
+	/**
+	 * Closes the engine even if it is in use, before its files are deleted.
+	 */
+	public void remove(String id) throws IOException, SQLException, URISyntaxException {
+		PooledEngine pooled;
+		CompletableFuture<Void> closed = new CompletableFuture<>();
+		synchronized (this) {
+			pooled = engines.remove(id);
+			if (pooled == null) {
+				return;
+			}
+			closing.put(id, closed);
+		}
+		try {
+			await(pooled.opening).close();
+		} finally {
+			closed(id, closed);
+		}
+	}
+
+	public void closeAll() throws IOException, SQLException, URISyntaxException {
+		List<String> ids;
+		synchronized (this) {
+			ids = new ArrayList<>(engines.keySet());
+		}
+		Iterator<String> it = ids.iterator();
+		while (it.hasNext()) {
+			remove(it.next());
+		}
+	}
+
+	public synchronized JSONObject getMetrics() {
+		int idle = 0;
+		Iterator<PooledEngine> it = engines.values().iterator();
+		while (it.hasNext()) {
+			if (it.next().references == 0) {
+				idle++;
+			}
+		}
+		JSONObject result = new JSONObject();
+		result.put("open", engines.size());
+		result.put("idle", idle);
+		result.put("opened", opened);
+		result.put("hits", hits);
+		result.put("evicted", evicted);
+		return result;
+	}
+
+	private void closeOverBudget() throws IOException {
+		int max = getPreference("maxOpenEngines", DEFAULT_MAX_ENGINES);
+		Map<String, PooledEngine> candidates = new LinkedHashMap<>();
+		synchronized (this) {
+			int open = engines.size();
+			Iterator<Map.Entry<String, PooledEngine>> it = engines.entrySet().iterator();
+			while (it.hasNext() && open - candidates.size() > max) {
+				Map.Entry<String, PooledEngine> entry = it.next();
+				if (entry.getValue().references == 0 && entry.getValue().engine != null) {
+					candidates.put(entry.getKey(), entry.getValue());
+				}
+			}
+			detach(candidates);
+		}
+		evict(candidates);
+	}
+
+	private void closeIdle() {
+		try {
+			long limit = System.currentTimeMillis() - getPreference("engineIdleTime", DEFAULT_IDLE_TIME) * 1000l;
+			Map<String, PooledEngine> candidates = new LinkedHashMap<>();
+			synchronized (this) {
+				Iterator<Map.Entry<String, PooledEngine>> it = engines.entrySet().iterator();
+				while (it.hasNext()) {
+					Map.Entry<String, PooledEngine> entry = it.next();
+					PooledEngine pooled = entry.getValue();
+					if (pooled.references == 0 && pooled.engine != null && pooled.lastUsed < limit) {
+						candidates.put(entry.getKey(), pooled);
+					}
+				}
+				detach(candidates);
+			}
+			evict(candidates);
+		} catch (IOException e) {
+			logger.log(Level.ERROR, e.getMessage(), e);
+		}
+	}
+
+	// removes the engines from the map, marking them as closing
+	private synchronized void detach(Map<String, PooledEngine> candidates) {
+		Iterator<String> it = candidates.keySet().iterator();
+		while (it.hasNext()) {
+			String id = it.next();
+			engines.remove(id);
+			closing.put(id, new CompletableFuture<>());
+		}
+	}
+
+	private void evict(Map<String, PooledEngine> candidates) {
+		Iterator<Map.Entry<String, PooledEngine>> it = candidates.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, PooledEngine> entry = it.next();
+			String id = entry.getKey();
+			CompletableFuture<Void> closed;
+			synchronized (this) {
+				closed = closing.get(id);
+			}
+			try {
+				entry.getValue().engine.close();
+			} catch (IOException | SQLException | URISyntaxException e) {
+				logger.log(Level.WARNING, e.getMessage(), e);
+			} finally {
+				closed(id, closed);
+			}
+			synchronized (this) {
+				evicted++;
+			}
+			logger.log(Level.DEBUG, "Closed " + name + " engine " + id);
+		}
+	}
+
+	private synchronized void closed(String id, CompletableFuture<Void> closed) {
+		closing.remove(id, closed);
+		closed.complete(null);
+	}
+
+	// waits for an engine that another request is opening or closing
+	private static <T> T await(CompletableFuture<T> future) throws IOException, SQLException, URISyntaxException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException ioe) {
+				throw ioe;
+			}
+			if (cause instanceof SQLException sqle) {
+				throw sqle;
+			}
+			if (cause instanceof URISyntaxException use) {
+				throw use;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	private static int getPreference(String key, int defaultValue) throws IOException {
+		JSONObject json = TmsServer.getPreferences();
+		if (json.has(key)) {
+			return json.getInt(key);
+		}
+		return defaultValue;
+	}
+}
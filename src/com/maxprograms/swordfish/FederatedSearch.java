@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2007-2026 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish;
+
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.json.JSONObject;
+
+import com.maxprograms.swordfish.tm.ITmEngine;
+import com.maxprograms.swordfish.tm.Match;
+import com.maxprograms.xml.Element;
+
+/**
+ * Searches several memories at the same time. Each memory is opened through
+ * {@link MemoriesHandler}, so engines that are already open are reused, and
+ * is given the number of seconds set in the "searchTimeout" preference to
+ * answer; memories that fail or time out are logged and left out of the
+ * results.
+ */
+public class FederatedSearch {
+
+	private static Logger logger = System.getLogger(FederatedSearch.class.getName());
+
+	private static final int DEFAULT_TIMEOUT = 30;
+
+	private static ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "federated-search");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	public record Result(String memory, Match match) {
+	}
+
+	private interface Search<T> {
+		List<T> search(String memory, ITmEngine engine) throws Exception;
+	}
+
+	private FederatedSearch() {
+		// private for security
+	}
+
+	/**
+	 * Returns the translation matches from all memories, best first. When the
+	 * same source and target are found more than once only the best match is
+	 * kept.
+	 */
+	public static List<Result> searchTranslation(List<String> memories, String searchStr, String srcLang,
+			String tgtLang, int similarity, boolean caseSensitive) throws IOException {
+		List<List<Result>> lists = fanOut(memories, (memory, engine) -> {
+			List<Match> matches = engine.searchTranslation(searchStr, srcLang, tgtLang, similarity, caseSensitive);
+			Collections.sort(matches);
+			List<Result> results = new ArrayList<>();
+			for (int i = 0; i < matches.size(); i++) {
+				results.add(new Result(memory, matches.get(i)));
+			}
+			return results;
+		});
+		// k-way merge of the sorted lists; each entry holds the list and the position of its head
+		PriorityQueue<int[]> queue = new PriorityQueue<>(Math.max(1, lists.size()),
+				(a, b) -> lists.get(a[0]).get(a[1]).match().compareTo(lists.get(b[0]).get(b[1]).match()));
+		for (int i = 0; i < lists.size(); i++) {
+			if (!lists.get(i).isEmpty()) {
+				queue.add(new int[] { i, 0 });
+			}
+		}
+		List<Result> merged = new Vector<>();
+		Set<String> seen = new HashSet<>();
+		while (!queue.isEmpty()) {
+			int[] head = queue.poll();
+			List<Result> list = lists.get(head[0]);
+			Match match = list.get(head[1]).match();
+			if (seen.add(match.getSource().toString() + match.getTarget().toString())) {
+				merged.add(list.get(head[1]));
+			}
+			if (head[1] + 1 < list.size()) {
+				queue.add(new int[] { head[0], head[1] + 1 });
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Returns the TUs found in all memories, in the order of the list of
+	 * memories, without repeating TUs that have the same segments.
+	 */
+	public static List<Element> concordanceSearch(List<String> memories, String searchStr, String srcLang,
+			int limit, boolean isRegexp, boolean caseSensitive) throws IOException {
+		List<List<Element>> lists = fanOut(memories,
+				(memory, engine) -> engine.concordanceSearch(searchStr, srcLang, limit, isRegexp, caseSensitive));
+		List<Element> merged = new Vector<>();
+		Set<String> seen = new HashSet<>();
+		for (int i = 0; i < lists.size(); i++) {
+			List<Element> list = lists.get(i);
+			for (int j = 0; j < list.size(); j++) {
+				Element tu = list.get(j);
+				StringBuilder key = new StringBuilder();
+				List<Element> tuvs = tu.getChildren("tuv");
+				for (int k = 0; k < tuvs.size(); k++) {
+					key.append(tuvs.get(k).toString());
+				}
+				if (seen.add(key.toString())) {
+					merged.add(tu);
+				}
+			}
+		}
+		return merged;
+	}
+
+	private static <T> List<List<T>> fanOut(List<String> memories, Search<T> search) throws IOException {
+		int timeout = getTimeout();
+		List<Future<List<T>>> futures = new ArrayList<>();
+		for (int i = 0; i < memories.size(); i++) {
+			String memory = memories.get(i);
+			futures.add(executor.submit(() -> {
+				MemoriesHandler.open(memory);
+				try {
+					return search.search(memory, MemoriesHandler.getEngine(memory));
+				} finally {
+					MemoriesHandler.close(memory);
+				}
+			}));
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+		List<List<T>> results = new ArrayList<>();
+		for (int i = 0; i < futures.size(); i++) {
+			Future<List<T>> future = futures.get(i);
+			try {
+				results.add(future.get(Math.max(0l, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+			} catch (TimeoutException e) {
+				// interrupting a search could close the files of an engine shared
+				// with other requests; the late result is ignored
+				future.cancel(false);
+				MessageFormat mf = new MessageFormat(Messages.getString("FederatedSearch.0"));
+				logger.log(Level.WARNING, mf.format(new String[] { memories.get(i), "" + timeout }));
+				results.add(new ArrayList<>());
+			} catch (ExecutionException e) {
+				MessageFormat mf = new MessageFormat(Messages.getString("FederatedSearch.1"));
+				logger.log(Level.WARNING, mf.format(new String[] { memories.get(i) }), e.getCause());
+				results.add(new ArrayList<>());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+		}
+		return results;
+	}
+
+	private static int getTimeout() throws IOException {
+		JSONObject json = TmsServer.getPreferences();
+		if (json.has("searchTimeout")) {
+			return json.getInt("searchTimeout");
+		}
+		return DEFAULT_TIMEOUT;
+	}
+}
@@ -58,8 +58,7 @@ public class GlossariesHandler implements HttpHandler {
 
 	private static Logger logger = System.getLogger(GlossariesHandler.class.getName());
 
-	private static Map<String, ITmEngine> engines;
-	private static Map<String, Integer> openCount = new Hashtable<>();
+	private static EnginePool engines = new EnginePool("glossary", GlossariesHandler::createEngine);
 	private static Map<String, JSONObject> openTasks = new Hashtable<>();
 
 	@Override
@@ -109,6 +108,8 @@ public class GlossariesHandler implements HttpHandler {
 				response = searchTerm(request);
 			} else if ("/glossaries/addTerm".equals(url)) {
 				response = addTerm(request);
+			} else if ("/glossaries/engines".equals(url)) {
+				response = engines.getMetrics();
 			} else {
 				MessageFormat mf = new MessageFormat(Messages.getString("GlossariesHandler.1"));
 				response.put(Constants.REASON, mf.format(new String[] { url }));
@@ -167,7 +168,6 @@ public class GlossariesHandler implements HttpHandler {
 
 	private static Map<String, Memory> getGlossaries() throws IOException {
 		Map<String, Memory> glossaries = new Hashtable<>();
-		engines = new Hashtable<>();
 		File home = new File(getWorkFolder());
 		File list = new File(home, "glossaries.json");
 		if (!list.exists()) {
@@ -233,7 +233,7 @@ public class GlossariesHandler implements HttpHandler {
 					JSONArray array = json.getJSONArray("glossaries");
 					for (int i = 0; i < array.length(); i++) {
 						Memory mem = glossaries.get(array.getString(i));
-						closeGlossary(mem.getId());
+						engines.remove(mem.getId());
 						if (mem.getType().equals(Memory.LOCAL)) {
 							deleteGlossaryFolder(mem.getId());
 						}
@@ -318,50 +318,35 @@ public class GlossariesHandler implements HttpHandler {
 		return result;
 	}
 
-	public static synchronized void openGlossary(String id) throws IOException, SQLException, URISyntaxException {
+	private static ITmEngine createEngine(String id) throws IOException, SQLException, URISyntaxException {
 		Map<String, Memory> glossaries = getGlossaries();
-		openGlossary(glossaries.get(id));
+		Memory memory = glossaries.get(id);
+		return memory.getType().equals(Memory.LOCAL) ? new SqliteDatabase(id, getWorkFolder())
+				: new RemoteDatabase(memory.getServer(), memory.getUser(), memory.getPassword(), id);
 	}
 
-	public static synchronized void openGlossary(Memory memory) throws IOException, SQLException, URISyntaxException {
-		if (!engines.containsKey(memory.getId())) {
-			ITmEngine engine = memory.getType().equals(Memory.LOCAL)
-					? new SqliteDatabase(memory.getId(), getWorkFolder())
-					: new RemoteDatabase(memory.getServer(), memory.getUser(), memory.getPassword(), memory.getId());
-			engines.put(memory.getId(), engine);
-			openCount.put(memory.getId(), 0);
-		}
-		int count = openCount.get(memory.getId());
-		openCount.put(memory.getId(), count + 1);
+	public static void openGlossary(String id) throws IOException, SQLException, URISyntaxException {
+		engines.acquire(id);
+	}
+
+	public static void openGlossary(Memory memory) throws IOException, SQLException, URISyntaxException {
+		engines.acquire(memory.getId());
 	}
 
 	public static ITmEngine getEngine(String id) throws IOException, SQLException, URISyntaxException {
-		if (!engines.containsKey(id)) {
-			openGlossary(id);
+		ITmEngine engine = engines.get(id);
+		if (engine == null) {
+			engine = engines.acquire(id);
 		}
-		return engines.get(id);
+		return engine;
 	}
 
-	public static synchronized void closeGlossary(String id) throws IOException, SQLException, URISyntaxException {
-		if (engines != null && engines.containsKey(id)) {
-			int count = openCount.get(id);
-			if (count > 1) {
-				openCount.put(id, count - 1);
-				return;
-			}
-			engines.get(id).close();
-			engines.remove(id);
-			openCount.remove(id);
-		}
+	public static void closeGlossary(String id) throws IOException, SQLException, URISyntaxException {
+		engines.release(id);
 	}
 
-	public static synchronized void closeAll() throws IOException, SQLException, URISyntaxException {
-		Set<String> keys = engines.keySet();
-		Iterator<String> it = keys.iterator();
-		while (it.hasNext()) {
-			engines.get(it.next()).close();
-		}
-		engines.clear();
+	public static void closeAll() throws IOException, SQLException, URISyntaxException {
+		engines.closeAll();
 	}
 
 	private JSONObject importGlossary(String request) {
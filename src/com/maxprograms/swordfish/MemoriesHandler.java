@@ -33,6 +33,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -48,6 +49,7 @@ import com.maxprograms.languages.Language;
 import com.maxprograms.languages.LanguageUtils;
 import com.maxprograms.swordfish.models.Memory;
 import com.maxprograms.swordfish.tm.ITmEngine;
+import com.maxprograms.swordfish.tm.MatchCache;
 import com.maxprograms.swordfish.tm.RemoteDatabase;
 import com.maxprograms.swordfish.tm.SqliteDatabase;
 import com.maxprograms.swordfish.xliff.XliffUtils;
@@ -61,10 +63,12 @@ public class MemoriesHandler implements HttpHandler {
 
 	private static Logger logger = System.getLogger(MemoriesHandler.class.getName());
 
-	private static Map<String, ITmEngine> engines;
-	private static Map<String, Integer> openCount = new Hashtable<>();
+	private static EnginePool engines = new EnginePool("memory", MemoriesHandler::createEngine);
+	private static MemoryMaintenance maintenance = new MemoryMaintenance(engines);
 	private static Map<String, JSONObject> openTasks = new Hashtable<>();
 	private static Map<String, SqliteDatabase> localEngines = new Hashtable<>();
+	private static Map<String, SqliteDatabase> exportingEngines = new Hashtable<>();
+	private static Map<String, String> maintainedMemories = new Hashtable<>();
 
 	@Override
 	public void handle(HttpExchange exchange) {
@@ -112,6 +116,14 @@ public class MemoriesHandler implements HttpHandler {
 				response = getProcessStatus(request);
 			} else if ("/memories/getLanguages".equals(url)) {
 				response = getLanguages(request);
+			} else if ("/memories/engines".equals(url)) {
+				response = engines.getMetrics();
+			} else if ("/memories/matchCache".equals(url)) {
+				response = MatchCache.getStats();
+			} else if ("/memories/patternCache".equals(url)) {
+				response = PatternCache.getStats();
+			} else if ("/memories/maintain".equals(url)) {
+				response = maintainMemories(request);
 			} else {
 				MessageFormat mf = new MessageFormat(Messages.getString("MemoriesHandler.1"));
 				response.put(Constants.REASON, mf.format(new String[] { url }));
@@ -178,6 +190,23 @@ public class MemoriesHandler implements HttpHandler {
 				SqliteDatabase engine = localEngines.get(process);
 				status.put("imported", engine.getCount());
 			}
+			if (exportingEngines.containsKey(process)) {
+				SqliteDatabase engine = exportingEngines.get(process);
+				status.put("exported", engine.getExported());
+				status.put("total", engine.getExportTotal());
+			}
+			if (maintainedMemories.containsKey(process)) {
+				String memory = maintainedMemories.get(process);
+				status.put("memory", memory);
+				JSONObject progress = maintenance.getStatus(memory);
+				if (progress != null) {
+					Iterator<String> it = progress.keys();
+					while (it.hasNext()) {
+						String key = it.next();
+						status.put(key, progress.get(key));
+					}
+				}
+			}
 			return status;
 		}
 		JSONObject error = new JSONObject();
@@ -207,24 +236,22 @@ public class MemoriesHandler implements HttpHandler {
 			try {
 				if (isRegexp) {
 					try {
-						Pattern.compile(searchStr);
+						PatternCache.get(searchStr);
 					} catch (PatternSyntaxException e) {
 						throw new IOException(Messages.getString("MemoriesHandler.6"));
 					}
 				}
-				List<Element> matches = new Vector<>();
+				List<String> memories = new Vector<>();
 				for (int i = 0; i < memoriesArray.length(); i++) {
-					String memory = memoriesArray.getString(i);
-					open(memory);
-					ITmEngine engine = getEngine(memory);
-					matches.addAll(engine.concordanceSearch(searchStr, srcLang, limit, isRegexp, caseSensitive));
-					close(memory);
+					memories.add(memoriesArray.getString(i));
 				}
+				List<Element> matches = FederatedSearch.concordanceSearch(memories, searchStr, srcLang, limit,
+						isRegexp, caseSensitive);
 				result.put("count", matches.size());
 				result.put("html", generateHTML(matches, searchStr, isRegexp, caseSensitive));
 				result.put(Constants.PROGRESS, Constants.COMPLETED);
 				openTasks.put(process, result);
-			} catch (IOException | SAXException | ParserConfigurationException | SQLException | URISyntaxException e) {
+			} catch (IOException | SAXException | ParserConfigurationException e) {
 				logger.log(Level.ERROR, e.getMessage(), e);
 				JSONObject error = new JSONObject();
 				error.put(Constants.REASON, e.getMessage());
@@ -327,7 +354,14 @@ public class MemoriesHandler implements HttpHandler {
 				} else {
 					langSet = engine.getAllLanguages();
 				}
-				engine.exportMemory(tmx.getAbsolutePath(), langSet, json.getString("srcLang"));
+				if (engine.getType().equals(SqliteDatabase.class.getName())) {
+					exportingEngines.put(process, (SqliteDatabase) engine);
+				}
+				try {
+					engine.exportMemory(tmx.getAbsolutePath(), langSet, json.getString("srcLang"));
+				} finally {
+					exportingEngines.remove(process);
+				}
 				close(memory);
 				JSONObject completed = new JSONObject();
 				completed.put(Constants.PROGRESS, Constants.COMPLETED);
@@ -360,7 +394,7 @@ public class MemoriesHandler implements HttpHandler {
 					for (int i = 0; i < array.length(); i++) {
 						String id = array.getString(i);
 						Memory memory = memories.get(id);
-						close(id);
+						engines.remove(id);
 						if (memory.getType().equals(Memory.LOCAL)) {
 							deleteMemoryFolder(id);
 						}
@@ -384,6 +418,43 @@ public class MemoriesHandler implements HttpHandler {
 		return result;
 	}
 
+	private static JSONObject maintainMemories(String request) {
+		JSONObject result = new JSONObject();
+		final JSONObject json = new JSONObject(request);
+		if (!json.has("memories")) {
+			result.put(Constants.REASON, Messages.getString("MemoriesHandler.15"));
+			return result;
+		}
+		final String process = "" + System.currentTimeMillis();
+		JSONObject obj = new JSONObject();
+		obj.put(Constants.PROGRESS, Constants.PROCESSING);
+		openTasks.put(process, obj);
+		new Thread(() -> {
+			try {
+				JSONArray array = json.getJSONArray("memories");
+				for (int i = 0; i < array.length(); i++) {
+					String id = array.getString(i);
+					maintainedMemories.put(process, id);
+					maintenance.submit(id).get();
+				}
+				JSONObject completed = new JSONObject();
+				completed.put(Constants.PROGRESS, Constants.COMPLETED);
+				openTasks.put(process, completed);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				logger.log(Level.ERROR, e.getCause().getMessage(), e.getCause());
+				JSONObject error = new JSONObject();
+				error.put(Constants.REASON, e.getCause().getMessage());
+				openTasks.put(process, error);
+			} finally {
+				maintainedMemories.remove(process);
+			}
+		}).start();
+		result.put("process", process);
+		return result;
+	}
+
 	private static void deleteMemoryFolder(String id) {
 		try {
 			File wfolder = new File(getWorkFolder(), id);
@@ -450,9 +521,23 @@ public class MemoriesHandler implements HttpHandler {
 		return result;
 	}
 
+	/**
+	 * Returns the ids of the memories stored in this computer.
+	 */
+	protected static List<String> getLocalMemories() throws IOException {
+		List<String> result = new Vector<>();
+		Iterator<Memory> it = getMemories().values().iterator();
+		while (it.hasNext()) {
+			Memory memory = it.next();
+			if (memory.getType().equals(Memory.LOCAL)) {
+				result.add(memory.getId());
+			}
+		}
+		return result;
+	}
+
 	private static synchronized Map<String, Memory> getMemories() throws IOException {
 		Map<String, Memory> memories = new Hashtable<>();
-		engines = new Hashtable<>();
 		File home = new File(getWorkFolder());
 		File list = new File(home, "memories.json");
 		if (!list.exists()) {
@@ -493,46 +578,31 @@ public class MemoriesHandler implements HttpHandler {
 		return home.getAbsolutePath();
 	}
 
-	public static synchronized void open(String id) throws IOException, SQLException, URISyntaxException {
-		if (!engines.containsKey(id)) {
-			Map<String, Memory> memories = getMemories();
-			Memory memory = memories.get(id);
-			ITmEngine engine = memory.getType().equals(Memory.LOCAL) ? new SqliteDatabase(id, getWorkFolder())
-					: new RemoteDatabase(memory.getServer(), memory.getUser(), memory.getPassword(), id);
-			engines.put(id, engine);
-			openCount.put(id, 0);
-		}
-		int count = openCount.get(id);
-		openCount.put(id, count + 1);
+	private static ITmEngine createEngine(String id) throws IOException, SQLException, URISyntaxException {
+		Map<String, Memory> memories = getMemories();
+		Memory memory = memories.get(id);
+		return memory.getType().equals(Memory.LOCAL) ? new SqliteDatabase(id, getWorkFolder())
+				: new RemoteDatabase(memory.getServer(), memory.getUser(), memory.getPassword(), id);
 	}
 
-	public static synchronized void close(String id) throws IOException, SQLException, URISyntaxException {
-		if (engines != null && engines.containsKey(id)) {
-			int count = openCount.get(id);
-			if (count > 1) {
-				openCount.put(id, count - 1);
-				return;
-			}
-			engines.get(id).close();
-			engines.remove(id);
-			openCount.remove(id);
-		}
+	public static void open(String id) throws IOException, SQLException, URISyntaxException {
+		engines.acquire(id);
 	}
 
-	public static synchronized void closeAll() throws IOException, SQLException, URISyntaxException {
-		Set<String> keys = engines.keySet();
-		Iterator<String> it = keys.iterator();
-		while (it.hasNext()) {
-			engines.get(it.next()).close();
-		}
-		engines.clear();
+	public static void close(String id) throws IOException, SQLException, URISyntaxException {
+		engines.release(id);
+	}
+
+	public static void closeAll() throws IOException, SQLException, URISyntaxException {
+		engines.closeAll();
 	}
 
 	public static ITmEngine getEngine(String id) throws IOException, SQLException, URISyntaxException {
-		if (!engines.containsKey(id)) {
-			open(id);
+		ITmEngine engine = engines.get(id);
+		if (engine == null) {
+			engine = engines.acquire(id);
 		}
-		return engines.get(id);
+		return engine;
 	}
 
 	public static String getName(String id) throws IOException {
@@ -594,7 +664,7 @@ public class MemoriesHandler implements HttpHandler {
 	private String highlight(String pureText, String searchStr, boolean regExp, boolean caseSensitive) {
 		StringBuilder text = new StringBuilder();
 		if (regExp) {
-			Pattern pattern = Pattern.compile(searchStr);
+			Pattern pattern = PatternCache.get(searchStr);
 			String s = pureText;
 			Matcher matcher = pattern.matcher(s);
 			if (matcher.find()) {
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2007-2026 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish;
+
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.net.URISyntaxException;
+import java.sql.SQLException;
+import java.text.MessageFormat;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+
+import com.maxprograms.swordfish.tm.ITmEngine;
+import com.maxprograms.swordfish.tm.SqliteDatabase;
+
+/**
+ * Runs the maintenance of local memories on a background thread, one memory
+ * at a time. Every number of seconds set in the "maintenanceInterval"
+ * preference, memories that no request is using and that have deleted or
+ * replaced TUs are maintained; a value of 0 leaves maintenance to explicit
+ * requests. Memories that are not open are only checked for the marker file
+ * left by deletions, so that the pass doesn't open every memory.
+ */
+public class MemoryMaintenance {
+
+	private static Logger logger = System.getLogger(MemoryMaintenance.class.getName());
+
+	private static final int DEFAULT_INTERVAL = 3600;
+
+	private static ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "memory-maintenance");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	});
+
+	private EnginePool pool;
+	// engines being maintained, by memory id
+	private Map<String, SqliteDatabase> running;
+	private long lastRun;
+
+	public MemoryMaintenance(EnginePool pool) {
+		this.pool = pool;
+		running = new Hashtable<>();
+		lastRun = System.currentTimeMillis();
+		executor.scheduleWithFixedDelay(this::maintainIdle, 60, 60, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Maintains a memory after the tasks already queued, whether it needs it
+	 * or not.
+	 */
+	public Future<Boolean> submit(String id) {
+		return executor.submit(() -> maintain(id, true));
+	}
+
+	/**
+	 * Returns the progress of the maintenance of a memory, or null if it is
+	 * not running.
+	 */
+	public JSONObject getStatus(String id) {
+		SqliteDatabase engine = running.get(id);
+		if (engine == null) {
+			return null;
+		}
+		String step = engine.getMaintenanceStep();
+		if (step == null) {
+			return null;
+		}
+		JSONObject result = new JSONObject();
+		result.put("step", step);
+		if ("index".equals(step)) {
+			result.put("done", engine.getMaintenanceDone());
+			result.put("total", engine.getMaintenanceTotal());
+		}
+		return result;
+	}
+
+	private void maintainIdle() {
+		try {
+			JSONObject json = TmsServer.getPreferences();
+			int interval = json.has("maintenanceInterval") ? json.getInt("maintenanceInterval") : DEFAULT_INTERVAL;
+			if (interval <= 0 || System.currentTimeMillis() - lastRun < interval * 1000l) {
+				return;
+			}
+			lastRun = System.currentTimeMillis();
+			List<String> memories = MemoriesHandler.getLocalMemories();
+			String workFolder = MemoriesHandler.getWorkFolder();
+			Iterator<String> it = memories.iterator();
+			while (it.hasNext()) {
+				String id = it.next();
+				if (!pool.isInUse(id) && (pool.isOpen(id) || SqliteDatabase.isFragmented(workFolder, id))) {
+					try {
+						maintain(id, false);
+					} catch (IOException | SQLException | URISyntaxException e) {
+						MessageFormat mf = new MessageFormat(Messages.getString("MemoryMaintenance.2"));
+						logger.log(Level.WARNING, mf.format(new String[] { id }), e);
+					}
+				}
+			}
+		} catch (IOException e) {
+			logger.log(Level.ERROR, e.getMessage(), e);
+		}
+	}
+
+	// returns true if the memory was maintained
+	private boolean maintain(String id, boolean always) throws IOException, SQLException, URISyntaxException {
+		ITmEngine engine = pool.acquire(id);
+		try {
+			if (engine instanceof SqliteDatabase db && (always || db.needsMaintenance())) {
+				MessageFormat mf = new MessageFormat(Messages.getString("MemoryMaintenance.0"));
+				logger.log(Level.INFO, mf.format(new String[] { id }));
+				running.put(id, db);
+				long start = System.currentTimeMillis();
+				db.maintain();
+				mf = new MessageFormat(Messages.getString("MemoryMaintenance.1"));
+				logger.log(Level.INFO, mf.format(new String[] { id, "" + (System.currentTimeMillis() - start) }));
+				return true;
+			}
+			return false;
+		} finally {
+			running.remove(id);
+			pool.release(id);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2007-2026 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import org.json.JSONObject;
+
+/**
+ * Compiled regular expressions shared by the REGEXP functions registered in
+ * memories and projects. SQLite calls those functions once per row with the
+ * same expression, so the least recently used patterns are kept compiled.
+ */
+public class PatternCache {
+
+	private static final int CAPACITY = 256;
+
+	private record Key(String expression, int flags) {
+	}
+
+	private static Map<Key, Pattern> patterns = new LinkedHashMap<>(CAPACITY, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Pattern> eldest) {
+			return size() > CAPACITY;
+		}
+	};
+	private static AtomicLong hits = new AtomicLong();
+	private static AtomicLong misses = new AtomicLong();
+
+	private PatternCache() {
+		// private for security
+	}
+
+	public static Pattern get(String expression) {
+		return get(expression, 0);
+	}
+
+	/**
+	 * Returns the compiled pattern of an expression with the given
+	 * {@link Pattern} flags.
+	 *
+	 * @throws java.util.regex.PatternSyntaxException if the expression is not
+	 *                                                valid
+	 */
+	public static Pattern get(String expression, int flags) {
+		Key key = new Key(expression, flags);
+		synchronized (patterns) {
+			Pattern pattern = patterns.get(key);
+			if (pattern != null) {
+				hits.incrementAndGet();
+				return pattern;
+			}
+		}
+		misses.incrementAndGet();
+		// compiled outside the lock; two threads may compile the same expression
+		Pattern pattern = Pattern.compile(expression, flags);
+		synchronized (patterns) {
+			patterns.put(key, pattern);
+		}
+		return pattern;
+	}
+
+	public static JSONObject getStats() {
+		JSONObject result = new JSONObject();
+		synchronized (patterns) {
+			result.put("entries", patterns.size());
+		}
+		long hitCount = hits.get();
+		long missCount = misses.get();
+		result.put("hits", hitCount);
+		result.put("misses", missCount);
+		long total = hitCount + missCount;
+		result.put("hitRatio", total == 0 ? 0.0 : (double) hitCount / total);
+		return result;
+	}
+}
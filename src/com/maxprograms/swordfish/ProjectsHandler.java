@@ -801,7 +801,8 @@ public class ProjectsHandler implements HttpHandler {
 		String sortOption = json.getString("sortOption");
 		boolean sortDesc = json.getBoolean("sortDesc");
 		try {
-			List<JSONObject> list = store.getSegments(json.getInt("start"), json.getInt("count"), filterText,
+			JSONObject after = json.has("after") ? json.getJSONObject("after") : null;
+			List<JSONObject> list = store.getSegments(json.getInt("start"), json.getInt("count"), after, filterText,
 					filterLanguage, caseSensitiveFilter, regExp, showUntranslated, showTranslated, showConfirmed,
 					showReviewed, sortOption, sortDesc);
 			JSONArray array = new JSONArray();
@@ -0,0 +1,171 @@
+/*******************************************************************************
+ * Copyright (c) 2007-2026 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish;
+
+import java.io.IOException;
+import java.lang.System.Logger;
+import java.lang.System.Logger.Level;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Set;
+
+import org.json.JSONObject;
+
+/**
+ * SQLite settings applied to the connections of memories and projects. The
+ * defaults can be changed in the "storage" object of preferences.json, and
+ * each memory or project can override them in its "memories" or "projects"
+ * entry:
+ *
+ * <pre>
+ * "storage": {
+ *     "synchronous": "NORMAL",
+ *     "cacheSize": -32768,
+ *     "projects": { "1700000000000": { "journalMode": "DELETE" } }
+ * }
+ * </pre>
+ */
+public class StorageProfile {
+
+	private static Logger logger = System.getLogger(StorageProfile.class.getName());
+
+	public static final String MEMORIES = "memories";
+	public static final String PROJECTS = "projects";
+
+	public static final String JOURNAL_MODE = "journalMode";
+	public static final String SYNCHRONOUS = "synchronous";
+	public static final String CACHE_SIZE = "cacheSize";
+	public static final String MMAP_SIZE = "mmapSize";
+	public static final String TEMP_STORE = "tempStore";
+	public static final String PAGE_SIZE = "pageSize";
+
+	private static final Set<String> JOURNAL_MODES = Set.of("DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL", "OFF");
+	private static final Set<String> SYNCHRONOUS_LEVELS = Set.of("OFF", "NORMAL", "FULL", "EXTRA");
+	private static final Set<String> TEMP_STORES = Set.of("DEFAULT", "FILE", "MEMORY");
+	private static final String[] PRAGMAS = { "journal_mode", "synchronous", "cache_size", "mmap_size", "temp_store",
+			"page_size" };
+
+	private String name;
+	private String journalMode;
+	private String synchronous;
+	private int cacheSize;
+	private long mmapSize;
+	private String tempStore;
+	private int pageSize;
+
+	private StorageProfile(String name) {
+		this.name = name;
+		journalMode = "WAL";
+		// with WAL, NORMAL only syncs at checkpoints and is still safe from corruption
+		synchronous = "NORMAL";
+		// negative values are in KiB: 32 MB per connection
+		cacheSize = -32768;
+		mmapSize = 0l;
+		tempStore = "DEFAULT";
+		pageSize = 4096;
+	}
+
+	/**
+	 * Returns the profile of a memory or project, combining the defaults from
+	 * preferences.json with the overrides for the given id.
+	 *
+	 * @param kind {@link #MEMORIES} or {@link #PROJECTS}
+	 */
+	public static StorageProfile getProfile(String kind, String id) throws IOException {
+		StorageProfile profile = new StorageProfile(kind + '/' + id);
+		JSONObject json = TmsServer.getPreferences();
+		if (json.has("storage")) {
+			JSONObject storage = json.getJSONObject("storage");
+			profile.load(storage);
+			if (storage.has(kind)) {
+				JSONObject overrides = storage.getJSONObject(kind);
+				if (overrides.has(id)) {
+					profile.load(overrides.getJSONObject(id));
+				}
+			}
+		}
+		return profile;
+	}
+
+	private void load(JSONObject json) {
+		if (json.has(JOURNAL_MODE)) {
+			journalMode = checkValue(JOURNAL_MODE, json.getString(JOURNAL_MODE), JOURNAL_MODES, journalMode);
+		}
+		if (json.has(SYNCHRONOUS)) {
+			synchronous = checkValue(SYNCHRONOUS, json.getString(SYNCHRONOUS), SYNCHRONOUS_LEVELS, synchronous);
+		}
+		if (json.has(CACHE_SIZE)) {
+			cacheSize = json.getInt(CACHE_SIZE);
+		}
+		if (json.has(MMAP_SIZE)) {
+			mmapSize = json.getLong(MMAP_SIZE);
+		}
+		if (json.has(TEMP_STORE)) {
+			tempStore = checkValue(TEMP_STORE, json.getString(TEMP_STORE), TEMP_STORES, tempStore);
+		}
+		if (json.has(PAGE_SIZE)) {
+			int size = json.getInt(PAGE_SIZE);
+			if (size >= 512 && size <= 65536 && Integer.bitCount(size) == 1) {
+				pageSize = size;
+			} else {
+				logger.log(Level.WARNING, "Ignoring invalid storage setting " + PAGE_SIZE + ": " + size);
+			}
+		}
+	}
+
+	private static String checkValue(String key, String value, Set<String> allowed, String current) {
+		String upper = value.toUpperCase();
+		if (allowed.contains(upper)) {
+			return upper;
+		}
+		logger.log(Level.WARNING, "Ignoring invalid storage setting " + key + ": " + value);
+		return current;
+	}
+
+	/**
+	 * Applies the profile to a connection that is still in auto-commit mode and
+	 * logs the settings in effect. Page size only changes in databases that have
+	 * no tables yet, and read-only connections keep the journal mode of the
+	 * file.
+	 */
+	public void apply(Connection conn, boolean readOnly) throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			if (!readOnly) {
+				stmt.execute("PRAGMA page_size=" + pageSize);
+				stmt.execute("PRAGMA journal_mode=" + journalMode);
+			}
+			stmt.execute("PRAGMA synchronous=" + synchronous);
+			stmt.execute("PRAGMA cache_size=" + cacheSize);
+			stmt.execute("PRAGMA mmap_size=" + mmapSize);
+			stmt.execute("PRAGMA temp_store=" + tempStore);
+			if (!readOnly) {
+				StringBuilder sb = new StringBuilder("SQLite settings for ");
+				sb.append(name);
+				for (int i = 0; i < PRAGMAS.length; i++) {
+					String pragma = PRAGMAS[i];
+					try (ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+						if (rs.next()) {
+							sb.append(' ');
+							sb.append(pragma);
+							sb.append('=');
+							sb.append(rs.getString(1));
+						}
+					}
+				}
+				logger.log(Level.INFO, sb.toString());
+			}
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * Copyright (c) 2007-2026 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+/**
+ * Similarity based on the length of the longest common subsequence, computed
+ * with the bit-vector algorithm of Allison-Dix and Hyyrö in
+ * O(n&middot;&lceil;m/64&rceil;) word operations. Scores follow
+ * {@link MatchQuality#similarity(String, String)} closely but ignore
+ * fragmentation, so they are not identical.
+ */
+public class BitParallelQuality {
+
+	// working storage reused by all comparisons made on the same thread
+	private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+	private static class Buffers {
+		char[] keys = new char[64];
+		boolean[] used = new boolean[64];
+		long[] masks = new long[64];
+		long[] vector = new long[1];
+
+		void ensureCapacity(int slots, int words) {
+			if (keys.length < slots) {
+				keys = new char[slots];
+				used = new boolean[slots];
+			}
+			if (masks.length < slots * words) {
+				masks = new long[slots * words];
+			}
+			if (vector.length < words) {
+				vector = new long[words];
+			}
+		}
+	}
+
+	private BitParallelQuality() {
+		// private for security
+	}
+
+	public static int similarity(String x, String y) {
+		// same bounds as String.trim(), without creating new strings
+		int xStart = 0;
+		int xEnd = x.length();
+		while (xStart < xEnd && x.charAt(xStart) <= ' ') {
+			xStart++;
+		}
+		while (xEnd > xStart && x.charAt(xEnd - 1) <= ' ') {
+			xEnd--;
+		}
+		int yStart = 0;
+		int yEnd = y.length();
+		while (yStart < yEnd && y.charAt(yStart) <= ' ') {
+			yStart++;
+		}
+		while (yEnd > yStart && y.charAt(yEnd - 1) <= ' ') {
+			yEnd--;
+		}
+		int longest = Math.max(xEnd - xStart, yEnd - yStart);
+		if (longest == 0) {
+			return 0;
+		}
+		// the shorter string is encoded as bit vectors
+		int lcs;
+		if (xEnd - xStart <= yEnd - yStart) {
+			lcs = lcsLength(x, xStart, xEnd, y, yStart, yEnd);
+		} else {
+			lcs = lcsLength(y, yStart, yEnd, x, xStart, xEnd);
+		}
+		return 100 * lcs / longest;
+	}
+
+	private static int lcsLength(String pattern, int pStart, int pEnd, String text, int tStart, int tEnd) {
+		int m = pEnd - pStart;
+		if (m == 0) {
+			return 0;
+		}
+		int words = (m + 63) >>> 6;
+		int slots = Integer.highestOneBit(m) << 2;
+		Buffers buffers = BUFFERS.get();
+		buffers.ensureCapacity(slots, words);
+		char[] keys = buffers.keys;
+		boolean[] used = buffers.used;
+		long[] masks = buffers.masks;
+		long[] v = buffers.vector;
+		int mask = slots - 1;
+
+		// match masks of every distinct character of the pattern
+		for (int i = 0; i < slots; i++) {
+			used[i] = false;
+		}
+		for (int i = 0; i < m; i++) {
+			char c = pattern.charAt(pStart + i);
+			int slot = c & mask;
+			while (used[slot] && keys[slot] != c) {
+				slot = (slot + 1) & mask;
+			}
+			if (!used[slot]) {
+				used[slot] = true;
+				keys[slot] = c;
+				for (int w = 0; w < words; w++) {
+					masks[slot * words + w] = 0L;
+				}
+			}
+			masks[slot * words + (i >>> 6)] |= 1L << (i & 63);
+		}
+
+		for (int w = 0; w < words; w++) {
+			v[w] = -1L;
+		}
+		for (int j = tStart; j < tEnd; j++) {
+			char c = text.charAt(j);
+			int slot = c & mask;
+			while (used[slot] && keys[slot] != c) {
+				slot = (slot + 1) & mask;
+			}
+			if (!used[slot]) {
+				// no match for this character leaves the vector unchanged
+				continue;
+			}
+			int base = slot * words;
+			long carry = 0L;
+			for (int w = 0; w < words; w++) {
+				long old = v[w];
+				long u = old & masks[base + w];
+				long sum = old + u + carry;
+				carry = ((old & u) | ((old | u) & ~sum)) >>> 63;
+				v[w] = sum | (old & ~u);
+			}
+		}
+
+		// each zero bit in the first m positions is a matched character
+		int ones = 0;
+		for (int w = 0; w < words - 1; w++) {
+			ones += Long.bitCount(v[w]);
+		}
+		int rest = m - ((words - 1) << 6);
+		long last = rest == 64 ? v[words - 1] : v[words - 1] & ((1L << rest) - 1);
+		ones += Long.bitCount(last);
+		return m - ones;
+	}
+}
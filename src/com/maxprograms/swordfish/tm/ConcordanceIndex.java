@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * Copyright (c) 2007-2026 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Substring index of the pure text of a memory. Each language has a
+ * contentless FTS5 table with the trigram tokenizer whose rowids are the TU
+ * ordinals; the "concordance" table lists the languages that have one.
+ * Queries use the index to find the TUs that contain a literal taken from the
+ * search pattern and then check the pattern itself against the stored text.
+ */
+class ConcordanceIndex {
+
+	static final String CONCORDANCE_TABLE = """
+			CREATE TABLE concordance (
+			lang VARCHAR(15) NOT NULL PRIMARY KEY
+			);""";
+
+	// the trigram tokenizer can't match shorter literals
+	static final int MIN_LITERAL = 3;
+
+	private Connection conn;
+	private Set<String> langs;
+	private Map<String, PreparedStatement> inserts;
+	private Map<String, PreparedStatement> deletes;
+
+	public ConcordanceIndex(Connection conn) throws SQLException {
+		this.conn = conn;
+		langs = new HashSet<>();
+		inserts = new HashMap<>();
+		deletes = new HashMap<>();
+		try (Statement stmt = conn.createStatement()) {
+			try (ResultSet rs = stmt.executeQuery("SELECT lang FROM concordance")) {
+				while (rs.next()) {
+					langs.add(rs.getString(1));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates the list of indexed languages and indexes the segments already
+	 * stored in the memory.
+	 */
+	static void build(Connection conn) throws SQLException {
+		List<String> languages = new ArrayList<>();
+		try (Statement stmt = conn.createStatement()) {
+			stmt.execute(CONCORDANCE_TABLE);
+			try (ResultSet rs = stmt.executeQuery("SELECT DISTINCT lang FROM tuv")) {
+				while (rs.next()) {
+					languages.add(rs.getString(1));
+				}
+			}
+			Iterator<String> it = languages.iterator();
+			while (it.hasNext()) {
+				String lang = it.next();
+				createTable(stmt, lang);
+				try (PreparedStatement insert = conn.prepareStatement("INSERT INTO " + tableName(lang)
+						+ " (rowid, puretext) SELECT tu, puretext FROM tuv WHERE lang=?")) {
+					insert.setString(1, lang);
+					insert.execute();
+				}
+			}
+		}
+		conn.commit();
+	}
+
+	private static void createTable(Statement stmt, String lang) throws SQLException {
+		stmt.execute("CREATE VIRTUAL TABLE " + tableName(lang)
+				+ " USING fts5(puretext, content='', contentless_delete=1, tokenize='trigram')");
+		stmt.execute("INSERT INTO concordance (lang) VALUES ('" + lang.replace("'", "''") + "')");
+	}
+
+	static String tableName(String lang) {
+		return "\"concordance_" + lang.replace("\"", "\"\"") + '"';
+	}
+
+	/**
+	 * Returns true if the language has segments in the index.
+	 */
+	public boolean hasLanguage(String lang) {
+		return langs.contains(lang);
+	}
+
+	/**
+	 * Queues the text of a segment, to be written by {@link #flush()}.
+	 */
+	public void add(long ordinal, String lang, String puretext) throws SQLException {
+		PreparedStatement insert = inserts.get(lang);
+		if (insert == null) {
+			if (!langs.contains(lang)) {
+				try (Statement stmt = conn.createStatement()) {
+					createTable(stmt, lang);
+				}
+				langs.add(lang);
+			}
+			insert = conn.prepareStatement("INSERT INTO " + tableName(lang) + " (rowid, puretext) VALUES (?,?)");
+			inserts.put(lang, insert);
+		}
+		insert.setLong(1, ordinal);
+		insert.setString(2, puretext);
+		insert.addBatch();
+	}
+
+	public void remove(long ordinal, String lang) throws SQLException {
+		if (!langs.contains(lang)) {
+			return;
+		}
+		PreparedStatement delete = deletes.get(lang);
+		if (delete == null) {
+			delete = conn.prepareStatement("DELETE FROM " + tableName(lang) + " WHERE rowid=?");
+			deletes.put(lang, delete);
+		}
+		delete.setLong(1, ordinal);
+		delete.execute();
+	}
+
+	public void flush() throws SQLException {
+		Iterator<PreparedStatement> it = inserts.values().iterator();
+		while (it.hasNext()) {
+			it.next().executeBatch();
+		}
+	}
+
+	/**
+	 * Merges the segments of each index, dropping the entries of deleted TUs.
+	 */
+	public void optimize() throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			Iterator<String> it = langs.iterator();
+			while (it.hasNext()) {
+				String table = tableName(it.next());
+				stmt.execute("INSERT INTO " + table + " (" + table + ") VALUES ('optimize')");
+			}
+		}
+	}
+
+	public void close() throws SQLException {
+		Iterator<PreparedStatement> it = inserts.values().iterator();
+		while (it.hasNext()) {
+			it.next().close();
+		}
+		it = deletes.values().iterator();
+		while (it.hasNext()) {
+			it.next().close();
+		}
+	}
+
+	/**
+	 * Returns an FTS5 query that matches the segments containing the literal,
+	 * ignoring case, or null when the literal is too short to be looked up.
+	 */
+	static String matchQuery(String literal) {
+		if (literal == null || literal.codePointCount(0, literal.length()) < MIN_LITERAL) {
+			return null;
+		}
+		return '"' + literal.replace("\"", "\"\"") + '"';
+	}
+
+	/**
+	 * Returns the longest run of plain characters that any text matched by the
+	 * regular expression must contain, or an empty string when no such run can
+	 * be found safely. Alternatives, groups, inline flags and quoted sections
+	 * are not analysed.
+	 */
+	static String requiredLiteral(String regex) {
+		if (regex.indexOf('|') != -1 || regex.contains("(?") || regex.contains("\\Q")) {
+			return "";
+		}
+		String best = "";
+		StringBuilder current = new StringBuilder();
+		int depth = 0;
+		int i = 0;
+		while (i < regex.length()) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				if (i + 1 == regex.length()) {
+					return "";
+				}
+				char next = regex.charAt(i + 1);
+				i += 2;
+				if (Character.isLetterOrDigit(next)) {
+					if ("dDsSwWbBAGzZhHvVR".indexOf(next) == -1) {
+						// escapes with arguments, back references and other constructs
+						return "";
+					}
+					best = longest(best, current);
+				} else if (depth == 0) {
+					current.append(next);
+				}
+				continue;
+			}
+			switch (c) {
+				case '[':
+					best = longest(best, current);
+					i = skipClass(regex, i);
+					if (i == -1) {
+						return "";
+					}
+					continue;
+				case '(':
+					depth++;
+					best = longest(best, current);
+					break;
+				case ')':
+					depth--;
+					best = longest(best, current);
+					break;
+				case '.', '^', '$':
+					best = longest(best, current);
+					break;
+				case '?', '*', '{':
+					// the previous character may be absent
+					removeLast(current);
+					best = longest(best, current);
+					if (c == '{') {
+						int end = regex.indexOf('}', i);
+						if (end == -1) {
+							return "";
+						}
+						i = end;
+					}
+					break;
+				case '+':
+					best = longest(best, current);
+					break;
+				default:
+					if (depth == 0) {
+						current.append(c);
+					}
+			}
+			i++;
+		}
+		return longest(best, current);
+	}
+
+	private static String longest(String best, StringBuilder current) {
+		String result = best;
+		if (current.length() > best.length()) {
+			result = current.toString();
+		}
+		current.setLength(0);
+		return result;
+	}
+
+	private static void removeLast(StringBuilder sb) {
+		int length = sb.length();
+		if (length == 0) {
+			return;
+		}
+		if (length > 1 && Character.isLowSurrogate(sb.charAt(length - 1))) {
+			sb.setLength(length - 2);
+		} else {
+			sb.setLength(length - 1);
+		}
+	}
+
+	// returns the index after the character class that starts at i, or -1
+	private static int skipClass(String regex, int i) {
+		int depth = 0;
+		int j = i;
+		while (j < regex.length()) {
+			char c = regex.charAt(j);
+			if (c == '\\') {
+				j += 2;
+				continue;
+			}
+			if (c == '[') {
+				depth++;
+				if (j + 1 < regex.length() && regex.charAt(j + 1) == '^') {
+					j++;
+				}
+				if (j + 1 < regex.length() && regex.charAt(j + 1) == ']') {
+					// a leading ']' is a member of the class
+					j++;
+				}
+			} else if (c == ']') {
+				depth--;
+				if (depth == 0) {
+					return j + 1;
+				}
+			}
+			j++;
+		}
+		return -1;
+	}
+}
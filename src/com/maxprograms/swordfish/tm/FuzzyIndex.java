@@ -14,43 +14,352 @@ package com.maxprograms.swordfish.tm;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.NavigableSet;
 import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.mapdb.BTreeKeySerializer;
+import org.mapdb.BTreeMap;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.Fun;
+import org.mapdb.Fun.Tuple2;
+import org.mapdb.Serializer;
 
+/**
+ * N-gram index of a memory. Each language has a memory-mapped file with the
+ * posting lists of its n-grams, stored as blocks of delta-encoded TU ordinals
+ * keyed by (n-gram, first ordinal in the block). Ordinals are assigned by
+ * the memory when a TU is stored.
+ */
 public class FuzzyIndex {
 
-	private Map<String, NavigableSet<Fun.Tuple2<Integer, String>>> maps;
+	// maximum number of ordinals in a posting block
+	static final int BLOCKSIZE = 128;
+
+	private Map<String, BTreeMap<Tuple2<Integer, Long>, byte[]>> maps;
 	private Map<String, DB> databases;
 	private File folder;
+	// held for writing while a rebuilt index replaces the current one
+	private ReadWriteLock lock;
 
 	public FuzzyIndex(File folder) {
 		this.folder = folder;
 		databases = new Hashtable<>();
 		maps = new Hashtable<>();
+		lock = new ReentrantReadWriteLock();
 	}
 
-	NavigableSet<Fun.Tuple2<Integer, String>> getIndex(String lang) throws IOException {
+	private synchronized BTreeMap<Tuple2<Integer, Long>, byte[]> getIndex(String lang) throws IOException {
 		if (!maps.containsKey(lang)) {
 			DB mapdb = null;
 			try {
-				mapdb = DBMaker.newFileDB(new File(folder, "index_" + lang)).closeOnJvmShutdown().make();
+				mapdb = DBMaker.newFileDB(new File(folder, "postings_" + lang)).mmapFileEnableIfSupported()
+						.closeOnJvmShutdown().make();
 			} catch (Error ioe) {
 				throw new IOException(ioe.getMessage());
 			}
-			NavigableSet<Fun.Tuple2<Integer, String>> multiMap = mapdb.getTreeSet(lang);
+			BTreeMap<Tuple2<Integer, Long>, byte[]> postings = mapdb.createTreeMap(lang)
+					.keySerializer(BTreeKeySerializer.TUPLE2).valueSerializer(Serializer.BYTE_ARRAY).makeOrGet();
 			databases.put(lang, mapdb);
-			maps.put(lang, multiMap);
+			maps.put(lang, postings);
 		}
 		return maps.get(lang);
 	}
 
+	/**
+	 * Marks the start of a rebuild. If the marker is still present when the
+	 * memory is opened, the rebuild was interrupted and must be repeated.
+	 */
+	public void startRebuild() throws IOException {
+		File marker = new File(folder, "postings.rebuild");
+		if (!marker.exists()) {
+			Files.createFile(marker.toPath());
+		}
+	}
+
+	public void finishRebuild() throws IOException {
+		Files.deleteIfExists(new File(folder, "postings.rebuild").toPath());
+	}
+
+	public boolean isRebuilding() {
+		return new File(folder, "postings.rebuild").exists();
+	}
+
+	/**
+	 * Replaces the index of a language with one built by {@link IndexBuilder}.
+	 * Searches wait while the files are swapped and then see the new index.
+	 */
+	public void replace(String lang, File built) throws IOException {
+		lock.writeLock().lock();
+		try {
+			synchronized (this) {
+				DB db = databases.remove(lang);
+				if (db != null) {
+					db.close();
+				}
+				maps.remove(lang);
+				String[] suffixes = { "", ".p", ".t" };
+				for (int i = 0; i < suffixes.length; i++) {
+					Path source = new File(built.getPath() + suffixes[i]).toPath();
+					Path target = new File(folder, "postings_" + lang + suffixes[i]).toPath();
+					if (Files.exists(source)) {
+						Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					} else {
+						Files.deleteIfExists(target);
+					}
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Closes the index and deletes its files, including those written by older
+	 * versions, so that it can be built again from the stored segments.
+	 */
+	public synchronized void clear() throws IOException {
+		close();
+		File[] files = folder.listFiles();
+		if (files == null) {
+			return;
+		}
+		for (int i = 0; i < files.length; i++) {
+			String name = files[i].getName();
+			if (name.startsWith("index_") || name.startsWith("postings_") || name.startsWith("ordinals")) {
+				Files.deleteIfExists(files[i].toPath());
+			}
+		}
+	}
+
+	public synchronized void add(String lang, long ordinal, int[] ngrams) throws IOException {
+		BTreeMap<Tuple2<Integer, Long>, byte[]> postings = getIndex(lang);
+		for (int i = 0; i < ngrams.length; i++) {
+			add(postings, ngrams[i], ordinal);
+		}
+	}
+
+	/**
+	 * Indexes a batch of TUs in one language. The pairs are grouped by n-gram so
+	 * that each posting list is updated once, appending whole blocks when the new
+	 * ordinals follow the ones already indexed.
+	 */
+	public synchronized void add(String lang, long[] ordinals, int[][] ngrams, int count) throws IOException {
+		BTreeMap<Tuple2<Integer, Long>, byte[]> postings = getIndex(lang);
+		int total = 0;
+		for (int i = 0; i < count; i++) {
+			total += ngrams[i].length;
+		}
+		// n-gram in the high half, position of the TU in the batch in the low half
+		long[] pairs = new long[total];
+		int size = 0;
+		for (int i = 0; i < count; i++) {
+			int[] grams = ngrams[i];
+			for (int j = 0; j < grams.length; j++) {
+				pairs[size++] = ((long) grams[j] << 32) | i;
+			}
+		}
+		Arrays.sort(pairs);
+		long[] values = new long[count];
+		int from = 0;
+		while (from < size) {
+			int ngram = (int) (pairs[from] >> 32);
+			int n = 0;
+			int to = from;
+			while (to < size && (int) (pairs[to] >> 32) == ngram) {
+				values[n++] = ordinals[(int) pairs[to]];
+				to++;
+			}
+			Arrays.sort(values, 0, n);
+			addAll(postings, ngram, values, n);
+			from = to;
+		}
+	}
+
+	private static void addAll(BTreeMap<Tuple2<Integer, Long>, byte[]> postings, int ngram, long[] values, int count) {
+		Map.Entry<Tuple2<Integer, Long>, byte[]> last = postings.floorEntry(Fun.t2(ngram, Long.MAX_VALUE));
+		long[] block = null;
+		if (last != null && last.getKey().a == ngram) {
+			block = Postings.decode(last.getValue());
+			if (values[0] <= block[block.length - 1]) {
+				// the batch goes between existing ordinals
+				for (int i = 0; i < count; i++) {
+					add(postings, ngram, values[i]);
+				}
+				return;
+			}
+		}
+		int from = 0;
+		if (block != null && block.length < BLOCKSIZE) {
+			int fill = Math.min(BLOCKSIZE - block.length, count);
+			long[] updated = Arrays.copyOf(block, block.length + fill);
+			System.arraycopy(values, 0, updated, block.length, fill);
+			postings.put(last.getKey(), Postings.encode(updated, 0, updated.length));
+			from = fill;
+		}
+		for (; from < count; from += BLOCKSIZE) {
+			postings.put(Fun.t2(ngram, values[from]), Postings.encode(values, from, Math.min(from + BLOCKSIZE, count)));
+		}
+	}
+
+	private static void add(BTreeMap<Tuple2<Integer, Long>, byte[]> postings, int ngram, long ordinal) {
+		Map.Entry<Tuple2<Integer, Long>, byte[]> entry = postings.floorEntry(Fun.t2(ngram, ordinal));
+		if (entry == null || entry.getKey().a != ngram) {
+			// the ordinal goes before the first block of the n-gram, if there is one
+			entry = postings.ceilingEntry(Fun.t2(ngram, ordinal));
+			if (entry == null || entry.getKey().a != ngram) {
+				postings.put(Fun.t2(ngram, ordinal), Postings.encode(new long[] { ordinal }, 0, 1));
+				return;
+			}
+		}
+		long[] values = Postings.decode(entry.getValue());
+		int idx = Arrays.binarySearch(values, ordinal);
+		if (idx >= 0) {
+			// already indexed
+			return;
+		}
+		idx = -idx - 1;
+		if (idx == values.length && values.length >= BLOCKSIZE) {
+			// appending to a full block starts a new one
+			postings.put(Fun.t2(ngram, ordinal), Postings.encode(new long[] { ordinal }, 0, 1));
+			return;
+		}
+		long[] updated = new long[values.length + 1];
+		System.arraycopy(values, 0, updated, 0, idx);
+		updated[idx] = ordinal;
+		System.arraycopy(values, idx, updated, idx + 1, values.length - idx);
+		if (idx == 0) {
+			postings.remove(entry.getKey());
+		}
+		if (updated.length > BLOCKSIZE) {
+			int half = updated.length / 2;
+			postings.put(Fun.t2(ngram, updated[0]), Postings.encode(updated, 0, half));
+			postings.put(Fun.t2(ngram, updated[half]), Postings.encode(updated, half, updated.length));
+		} else {
+			postings.put(Fun.t2(ngram, updated[0]), Postings.encode(updated, 0, updated.length));
+		}
+	}
+
+	/**
+	 * Returns the sorted ordinals of all TUs indexed under an n-gram.
+	 */
+	public long[] getPostings(String lang, int ngram) throws IOException {
+		List<long[]> decoded = new ArrayList<>();
+		int size = 0;
+		lock.readLock().lock();
+		try {
+			BTreeMap<Tuple2<Integer, Long>, byte[]> postings = getIndex(lang);
+			Map<Tuple2<Integer, Long>, byte[]> blocks = postings.subMap(Fun.t2(ngram, Long.MIN_VALUE), true,
+					Fun.t2(ngram, Long.MAX_VALUE), true);
+			Iterator<byte[]> it = blocks.values().iterator();
+			while (it.hasNext()) {
+				long[] values = Postings.decode(it.next());
+				decoded.add(values);
+				size += values.length;
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		if (decoded.size() == 1) {
+			return decoded.get(0);
+		}
+		long[] result = new long[size];
+		int pos = 0;
+		for (int i = 0; i < decoded.size(); i++) {
+			long[] values = decoded.get(i);
+			System.arraycopy(values, 0, result, pos, values.length);
+			pos += values.length;
+		}
+		return result;
+	}
+
+	/**
+	 * Counts how many of the given n-grams each indexed TU shares, merging the
+	 * sorted posting lists, and keeps the TUs whose count is between
+	 * <code>min</code> and <code>max</code>.
+	 */
+	public Map<Long, Integer> getCandidates(String lang, int[] ngrams, int min, int max) throws IOException {
+		long[][] lists = new long[ngrams.length][];
+		int[] pos = new int[ngrams.length];
+		// min-heap of list indexes, ordered by the current value of each list
+		int[] heap = new int[ngrams.length];
+		int size = 0;
+		for (int i = 0; i < ngrams.length; i++) {
+			lists[i] = getPostings(lang, ngrams[i]);
+			if (lists[i].length > 0) {
+				heap[size] = i;
+				siftUp(heap, size++, lists, pos);
+			}
+		}
+		Map<Long, Integer> result = new HashMap<>();
+		while (size > 0) {
+			long value = lists[heap[0]][pos[heap[0]]];
+			int count = 0;
+			while (size > 0 && lists[heap[0]][pos[heap[0]]] == value) {
+				count++;
+				int top = heap[0];
+				pos[top]++;
+				if (pos[top] == lists[top].length) {
+					heap[0] = heap[--size];
+				}
+				siftDown(heap, size, lists, pos);
+			}
+			if (count >= min && count <= max) {
+				result.put(value, count);
+			}
+		}
+		return result;
+	}
+
+	private static void siftUp(int[] heap, int idx, long[][] lists, int[] pos) {
+		int item = heap[idx];
+		long value = lists[item][pos[item]];
+		while (idx > 0) {
+			int parent = (idx - 1) / 2;
+			if (lists[heap[parent]][pos[heap[parent]]] <= value) {
+				break;
+			}
+			heap[idx] = heap[parent];
+			idx = parent;
+		}
+		heap[idx] = item;
+	}
+
+	private static void siftDown(int[] heap, int size, long[][] lists, int[] pos) {
+		if (size == 0) {
+			return;
+		}
+		int item = heap[0];
+		long value = lists[item][pos[item]];
+		int idx = 0;
+		while (true) {
+			int child = 2 * idx + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && lists[heap[child + 1]][pos[heap[child + 1]]] < lists[heap[child]][pos[heap[child]]]) {
+				child++;
+			}
+			if (lists[heap[child]][pos[heap[child]]] >= value) {
+				break;
+			}
+			heap[idx] = heap[child];
+			idx = child;
+		}
+		heap[idx] = item;
+	}
+
 	public synchronized void commit() {
 		Set<String> set = databases.keySet();
 		Iterator<String> keys = set.iterator();
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright (c) 2007-2026 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mapdb.BTreeKeySerializer;
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Fun;
+import org.mapdb.Fun.Tuple2;
+import org.mapdb.Serializer;
+
+/**
+ * Builds the posting lists of one language from scratch. The (n-gram, ordinal)
+ * pairs are sorted in memory-sized runs that are written to disk and then
+ * merged, so that the index file is written sequentially, one block at a time.
+ */
+class IndexBuilder {
+
+	// pairs sorted in memory before a run is written to disk
+	private static final int RUNSIZE = 1 << 21;
+
+	// numbers the builders, so that builds running at the same time don't share files
+	private static AtomicLong builds = new AtomicLong();
+
+	private File folder;
+	private String lang;
+	private long id;
+	private long[] keys;
+	private long[] ordinals;
+	private int size;
+	private List<File> runs;
+	private List<Integer> counts;
+	private long lastOrdinal;
+
+	private static class Run {
+		DataInputStream input;
+		int remaining;
+		int ngram;
+		long ordinal;
+
+		Run(File file, int count) throws IOException {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+			remaining = count;
+		}
+
+		boolean next() throws IOException {
+			if (remaining == 0) {
+				input.close();
+				return false;
+			}
+			ngram = input.readInt();
+			ordinal = input.readLong();
+			remaining--;
+			return true;
+		}
+	}
+
+	public IndexBuilder(File folder, String lang) {
+		this.folder = folder;
+		this.lang = lang;
+		id = builds.incrementAndGet();
+		keys = new long[RUNSIZE];
+		ordinals = new long[RUNSIZE];
+		runs = new ArrayList<>();
+		counts = new ArrayList<>();
+		lastOrdinal = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Adds the n-grams of a TU. TUs must be added in ascending ordinal order.
+	 */
+	public void add(long ordinal, int[] ngrams) throws IOException {
+		if (ordinal <= lastOrdinal) {
+			throw new IllegalArgumentException("Ordinals must be added in ascending order");
+		}
+		lastOrdinal = ordinal;
+		for (int i = 0; i < ngrams.length; i++) {
+			if (size == RUNSIZE) {
+				writeRun();
+			}
+			// n-gram in the high half, position in the run in the low half; as ordinals
+			// grow with the position, sorting the keys also sorts the ordinals of each n-gram
+			keys[size] = ((long) ngrams[i] << 32) | size;
+			ordinals[size] = ordinal;
+			size++;
+		}
+	}
+
+	private void writeRun() throws IOException {
+		Arrays.sort(keys, 0, size);
+		File run = new File(folder, "run_" + lang + '_' + id + '_' + runs.size() + ".tmp");
+		try (DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(run), 65536))) {
+			for (int i = 0; i < size; i++) {
+				output.writeInt((int) (keys[i] >> 32));
+				output.writeLong(ordinals[(int) keys[i]]);
+			}
+		}
+		runs.add(run);
+		counts.add(size);
+		size = 0;
+	}
+
+	/**
+	 * Merges the sorted runs into a new index file and deletes the runs.
+	 *
+	 * @return the new index file, to be passed to
+	 *         {@link FuzzyIndex#replace(String, File)}
+	 */
+	public File build() throws IOException {
+		if (size > 0) {
+			writeRun();
+		}
+		// the arrays are no longer needed while merging
+		keys = null;
+		ordinals = null;
+		File target = new File(folder, "postings_" + lang + '_' + id + ".new");
+		deleteFiles(target);
+		DB db = null;
+		try {
+			db = DBMaker.newFileDB(target).transactionDisable().mmapFileEnableIfSupported().make();
+		} catch (Error ioe) {
+			throw new IOException(ioe.getMessage());
+		}
+		BTreeMap<Tuple2<Integer, Long>, byte[]> postings = db.createTreeMap(lang)
+				.keySerializer(BTreeKeySerializer.TUPLE2).valueSerializer(Serializer.BYTE_ARRAY).make();
+		PriorityQueue<Run> queue = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> {
+			int result = Integer.compare(a.ngram, b.ngram);
+			return result != 0 ? result : Long.compare(a.ordinal, b.ordinal);
+		});
+		try {
+			for (int i = 0; i < runs.size(); i++) {
+				Run run = new Run(runs.get(i), counts.get(i));
+				if (run.next()) {
+					queue.add(run);
+				}
+			}
+			long[] block = new long[FuzzyIndex.BLOCKSIZE];
+			int count = 0;
+			int current = 0;
+			while (!queue.isEmpty()) {
+				Run run = queue.poll();
+				if (count > 0 && (run.ngram != current || count == block.length)) {
+					postings.put(Fun.t2(current, block[0]), Postings.encode(block, 0, count));
+					count = 0;
+				}
+				current = run.ngram;
+				block[count++] = run.ordinal;
+				if (run.next()) {
+					queue.add(run);
+				}
+			}
+			if (count > 0) {
+				postings.put(Fun.t2(current, block[0]), Postings.encode(block, 0, count));
+			}
+			db.commit();
+		} finally {
+			while (!queue.isEmpty()) {
+				queue.poll().input.close();
+			}
+			db.close();
+			for (int i = 0; i < runs.size(); i++) {
+				Files.deleteIfExists(runs.get(i).toPath());
+			}
+		}
+		return target;
+	}
+
+	static void deleteFiles(File file) throws IOException {
+		Files.deleteIfExists(file.toPath());
+		Files.deleteIfExists(new File(file.getPath() + ".p").toPath());
+		Files.deleteIfExists(new File(file.getPath() + ".t").toPath());
+	}
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * Copyright (c) 2007-2026 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.json.JSONObject;
+
+import com.maxprograms.swordfish.TmsServer;
+import com.maxprograms.xml.Element;
+
+/**
+ * Results of translation searches in local memories, shared by all open
+ * engines. Each memory has a generation number that changes whenever its
+ * TUs change; results found in an older generation are discarded. The cache
+ * holds at most "matchCacheEntries" searches and "matchCacheSize" megabytes
+ * of segments, evicting the least recently used first.
+ */
+public class MatchCache {
+
+	private static final int DEFAULT_ENTRIES = 10000;
+	private static final int DEFAULT_SIZE = 32;
+
+	private record Key(String memory, String settings, String searchStr, String srcLang, String tgtLang,
+			int similarity, boolean caseSensitive) {
+	}
+
+	private record Entry(long generation, List<Match> matches, long bytes) {
+	}
+
+	private static Map<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+	private static Map<String, Long> generations = new Hashtable<>();
+	private static long bytes;
+	private static int maxEntries = -1;
+	private static long maxBytes;
+	private static long hits;
+	private static long misses;
+	private static long evictions;
+	private static long stale;
+
+	private MatchCache() {
+		// private for security
+	}
+
+	/**
+	 * Returns a copy of the cached matches, or null if the search has not been
+	 * made since the memory last changed.
+	 *
+	 * @param memory   the folder of the memory
+	 * @param settings the engine settings that affect the results
+	 */
+	static List<Match> get(String memory, String settings, String searchStr, String srcLang, String tgtLang,
+			int similarity, boolean caseSensitive) {
+		Key key = new Key(memory, settings, searchStr, srcLang, tgtLang, similarity, caseSensitive);
+		synchronized (entries) {
+			Entry entry = entries.get(key);
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+			if (entry.generation() != getGeneration(memory)) {
+				entries.remove(key);
+				bytes -= entry.bytes();
+				stale++;
+				misses++;
+				return null;
+			}
+			hits++;
+			return copy(entry.matches());
+		}
+	}
+
+	static void put(String memory, String settings, String searchStr, String srcLang, String tgtLang,
+			int similarity, boolean caseSensitive, long generation, List<Match> matches) throws IOException {
+		Key key = new Key(memory, settings, searchStr, srcLang, tgtLang, similarity, caseSensitive);
+		long size = 2l * (memory.length() + settings.length() + searchStr.length()) + 128;
+		Iterator<Match> it = matches.iterator();
+		while (it.hasNext()) {
+			Match match = it.next();
+			size += 2l * (match.getSource().toString().length() + match.getTarget().toString().length()) + 256;
+		}
+		synchronized (entries) {
+			loadLimits();
+			if (generation != getGeneration(memory) || size > maxBytes) {
+				return;
+			}
+			Entry old = entries.put(key, new Entry(generation, copy(matches), size));
+			if (old != null) {
+				bytes -= old.bytes();
+			}
+			bytes += size;
+			Iterator<Entry> values = entries.values().iterator();
+			while (values.hasNext() && (entries.size() > maxEntries || bytes > maxBytes)) {
+				bytes -= values.next().bytes();
+				values.remove();
+				evictions++;
+			}
+		}
+	}
+
+	/**
+	 * Returns the current generation of a memory, to be passed to
+	 * {@link #put} with the results of a search started afterwards.
+	 */
+	static long getGeneration(String memory) {
+		Long generation = generations.get(memory);
+		return generation != null ? generation : 0l;
+	}
+
+	/**
+	 * Discards the cached results of a memory after its TUs change.
+	 */
+	static synchronized void invalidate(String memory) {
+		generations.put(memory, getGeneration(memory) + 1);
+	}
+
+	private static void loadLimits() throws IOException {
+		if (maxEntries == -1) {
+			JSONObject json = TmsServer.getPreferences();
+			maxEntries = json.has("matchCacheEntries") ? json.getInt("matchCacheEntries") : DEFAULT_ENTRIES;
+			maxBytes = (json.has("matchCacheSize") ? json.getInt("matchCacheSize") : DEFAULT_SIZE) * 1024l * 1024l;
+		}
+	}
+
+	private static List<Match> copy(List<Match> matches) {
+		List<Match> result = new Vector<>();
+		Iterator<Match> it = matches.iterator();
+		while (it.hasNext()) {
+			Match match = it.next();
+			Element source = new Element();
+			source.clone(match.getSource());
+			Element target = new Element();
+			target.clone(match.getTarget());
+			result.add(new Match(match.getId(), source, target, match.getSimilarity(), match.getOrigin(),
+					new Hashtable<>(match.getProperties())));
+		}
+		return result;
+	}
+
+	public static JSONObject getStats() {
+		synchronized (entries) {
+			JSONObject result = new JSONObject();
+			result.put("entries", entries.size());
+			result.put("bytes", bytes);
+			result.put("hits", hits);
+			result.put("misses", misses);
+			long total = hits + misses;
+			result.put("hitRatio", total == 0 ? 0.0 : (double) hits / total);
+			result.put("evictions", evictions);
+			result.put("stale", stale);
+			return result;
+		}
+	}
+}
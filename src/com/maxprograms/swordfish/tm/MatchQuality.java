@@ -16,79 +16,168 @@ public class MatchQuality {
 
     static final int PENALTY = 2;
 
+    // working storage reused by all comparisons made on the same thread
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    private static class Buffers {
+        char[] a = new char[256];
+        char[] b = new char[256];
+        int[] previous = new int[257];
+        int[] current = new int[257];
+
+        void ensureCapacity(int length) {
+            if (a.length < length) {
+                a = new char[length];
+                b = new char[length];
+                previous = new int[length + 1];
+                current = new int[length + 1];
+            }
+        }
+    }
+
     private MatchQuality() {
         // private for security
     }
 
-    private static String lcs(String x, String y) {
-        int m = x.length();
-        int n = y.length();
+    /**
+     * Finds the longest common substring of a[0..m) and b[0..n), keeping only
+     * two rows of the dynamic programming matrix.
+     *
+     * @return the length of the substring in the high 32 bits and the index in
+     *         <code>a</code> where it ends in the low 32 bits
+     */
+    private static long lcs(char[] a, int m, char[] b, int n, Buffers buffers) {
+        int[] previous = buffers.previous;
+        int[] current = buffers.current;
         int max = 0;
         int mx = 0;
-
-        // opt[i][j] = length of LCS of x[i..M] and y[j..N]
-        int[][] opt = new int[m + 1][n + 1];
-
-        // fill the matrix
+        for (int j = 0; j <= n; j++) {
+            previous[j] = 0;
+        }
+        current[0] = 0;
         for (int i = 1; i <= m; i++) {
+            char c = a[i - 1];
             for (int j = 1; j <= n; j++) {
-                if (x.charAt(i - 1) == y.charAt(j - 1)) {
-                    opt[i][j] = opt[i - 1][j - 1] + 1;
-                    if (opt[i][j] > max) {
+                if (c == b[j - 1]) {
+                    int length = previous[j - 1] + 1;
+                    current[j] = length;
+                    if (length > max) {
                         // remember where the maximum length is
-                        max = opt[i][j];
+                        max = length;
                         mx = i;
                     }
                 } else {
-                    opt[i][j] = 0;
+                    current[j] = 0;
                 }
             }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
         }
+        return ((long) max << 32) | mx;
+    }
 
-        // recover the LCS
-        StringBuilder result = new StringBuilder();
-        while (max > 0) {
-            result.insert(0, x.charAt(mx - 1));
-            max--;
-            mx--;
+    private static boolean isBlank(char[] array, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (array[i] > ' ') {
+                return false;
+            }
         }
-        return result.toString();
+        return true;
+    }
+
+    private static int indexOf(char[] array, int length, char[] pattern, int start, int count) {
+        int last = length - count;
+        for (int i = 0; i <= last; i++) {
+            int k = 0;
+            while (k < count && array[i + k] == pattern[start + k]) {
+                k++;
+            }
+            if (k == count) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the highest value that {@link #similarity(String, String)} can
+     * produce for the given strings, based only on their lengths.
+     */
+    public static int upperBound(String x, String y) {
+        int a = x.trim().length();
+        int b = y.trim().length();
+        int longest = Math.max(a, b);
+        if (longest == 0) {
+            return 0;
+        }
+        return Math.max(100 * Math.min(a, b) / longest, PENALTY);
     }
 
     public static int similarity(String x, String y) {
-        int result = 0;
-        x = x.trim();
-        y = y.trim();
-        int longest = Math.max(x.length(), y.length());
+        // same bounds as String.trim(), without creating new strings
+        int xStart = 0;
+        int xEnd = x.length();
+        while (xStart < xEnd && x.charAt(xStart) <= ' ') {
+            xStart++;
+        }
+        while (xEnd > xStart && x.charAt(xEnd - 1) <= ' ') {
+            xEnd--;
+        }
+        int yStart = 0;
+        int yEnd = y.length();
+        while (yStart < yEnd && y.charAt(yStart) <= ' ') {
+            yStart++;
+        }
+        while (yEnd > yStart && y.charAt(yEnd - 1) <= ' ') {
+            yEnd--;
+        }
+        int xLength = xEnd - xStart;
+        int yLength = yEnd - yStart;
+        int longest = Math.max(xLength, yLength);
         if (longest == 0) {
             return 0;
         }
-        String a;
-        String b;
-        if (x.length() == longest) {
-            a = x;
-            b = y;
+        Buffers buffers = BUFFERS.get();
+        buffers.ensureCapacity(longest);
+        char[] a = buffers.a;
+        char[] b = buffers.b;
+        int m;
+        int n;
+        if (xLength == longest) {
+            x.getChars(xStart, xEnd, a, 0);
+            y.getChars(yStart, yEnd, b, 0);
+            m = xLength;
+            n = yLength;
         } else {
-            a = y;
-            b = x;
+            y.getChars(yStart, yEnd, a, 0);
+            x.getChars(xStart, xEnd, b, 0);
+            m = yLength;
+            n = xLength;
         }
         // a is the longest string
         int count = -1;
-        int idx;
-        String lcs = lcs(a, b);
-        while (!lcs.trim().isEmpty() && lcs.length() > longest * PENALTY / 100) {
+        int limit = longest * PENALTY / 100;
+        long found = lcs(a, m, b, n, buffers);
+        int length = (int) (found >>> 32);
+        int start = (int) found - length;
+        while (!isBlank(a, start, start + length) && length > limit) {
             count++;
-            idx = a.indexOf(lcs);
-            a = a.substring(0, idx) + a.substring(idx + lcs.length());
-            idx = b.indexOf(lcs);
-            b = b.substring(0, idx) + b.substring(idx + lcs.length());
-            lcs = lcs(a, b);
+            // the first occurrence of the common substring in a is the one just found
+            int idx = indexOf(b, n, a, start, length);
+            System.arraycopy(b, idx + length, b, idx, n - idx - length);
+            n -= length;
+            System.arraycopy(a, start + length, a, start, m - start - length);
+            m -= length;
+            found = lcs(a, m, b, n, buffers);
+            length = (int) (found >>> 32);
+            start = (int) found - length;
         }
-        result = 100 * (longest - a.length()) / longest - count * PENALTY;
+        int result = 100 * (longest - m) / longest - count * PENALTY;
         if (result < 0) {
             result = 0;
         }
         return result;
     }
 
-}
\ No newline at end of file
+}
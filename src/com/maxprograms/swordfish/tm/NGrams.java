@@ -12,10 +12,8 @@
 
 package com.maxprograms.swordfish.tm;
 
-import java.util.Hashtable;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
@@ -30,39 +28,60 @@ public class NGrams {
 	// allow hyphen in terms
 	public static final String TERM_SEPARATORS = " \u00A0\r\n\f\t\u2028\u2029,.;\":<>¿?¡!()[]{}=+/*\u00AB\u00BB\u201C\u201D\u201E\uFF00";
 
+	private static final boolean[] IS_SEPARATOR = new boolean[Character.MAX_VALUE + 1];
+
+	static {
+		for (int i = 0; i < SEPARATORS.length(); i++) {
+			IS_SEPARATOR[SEPARATORS.charAt(i)] = true;
+		}
+	}
+
+	/**
+	 * Returns the sorted, distinct hashes of the n-grams of each word in
+	 * <code>source</code>. Hashes are computed directly from the characters and
+	 * are equal to <code>String.hashCode()</code> of each n-gram, as stored in
+	 * existing fuzzy indexes.
+	 */
 	public static int[] getNGrams(String source) {
 		String src = source.toLowerCase();
-		List<String> words = buildWordList(src, SEPARATORS);
-		Map<String, String> table = new Hashtable<>();
-
-		Iterator<String> it = words.iterator();
-		while (it.hasNext()) {
-			String word = it.next();
-			char[] array = word.toCharArray();
-			int length = word.length();
-			int ngrams = length / NGRAMSIZE;
-			if (ngrams * NGRAMSIZE < length) {
-				ngrams++;
-			}
-			for (int i = 0; i < ngrams; i++) {
-				StringBuilder gram = new StringBuilder();
-				for (int j = 0; j < NGRAMSIZE; j++) {
-					if (i * NGRAMSIZE + j < length) {
-						char c = array[i * NGRAMSIZE + j];
-						gram.append(c);
-					}
+		int length = src.length();
+		// a word never has more n-grams than characters
+		int[] grams = new int[length];
+		int count = 0;
+		int hash = 0;
+		int size = 0;
+		for (int i = 0; i < length; i++) {
+			char c = src.charAt(i);
+			if (IS_SEPARATOR[c]) {
+				if (size > 0) {
+					grams[count++] = hash;
+					hash = 0;
+					size = 0;
 				}
-				table.put("" + gram.toString().hashCode(), "");
+				continue;
+			}
+			hash = 31 * hash + c;
+			size++;
+			if (size == NGRAMSIZE) {
+				grams[count++] = hash;
+				hash = 0;
+				size = 0;
 			}
 		}
-
-		Iterator<String> keys = table.keySet().iterator();
-		int[] result = new int[table.size()];
-		int idx = 0;
-		while (keys.hasNext()) {
-			result[idx++] = Integer.parseInt(keys.next());
+		if (size > 0) {
+			grams[count++] = hash;
 		}
-		return result;
+		if (count == 0) {
+			return new int[0];
+		}
+		Arrays.sort(grams, 0, count);
+		int distinct = 1;
+		for (int i = 1; i < count; i++) {
+			if (grams[i] != grams[distinct - 1]) {
+				grams[distinct++] = grams[i];
+			}
+		}
+		return Arrays.copyOf(grams, distinct);
 	}
 
 	public static List<String> buildWordList(String src, String separator) {
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2007-2026 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+/**
+ * Encodes ascending lists of TU ordinals as a varint count, the first value
+ * and the varint gaps between consecutive values.
+ */
+class Postings {
+
+	private Postings() {
+		// private for security
+	}
+
+	static byte[] encode(long[] values, int from, int to) {
+		byte[] buffer = new byte[10 * (to - from + 1)];
+		int pos = writeVarLong(buffer, 0, to - from);
+		long previous = 0;
+		for (int i = from; i < to; i++) {
+			pos = writeVarLong(buffer, pos, values[i] - previous);
+			previous = values[i];
+		}
+		byte[] result = new byte[pos];
+		System.arraycopy(buffer, 0, result, 0, pos);
+		return result;
+	}
+
+	static long[] decode(byte[] data) {
+		int[] pos = new int[1];
+		int count = (int) readVarLong(data, pos);
+		long[] result = new long[count];
+		long previous = 0;
+		for (int i = 0; i < count; i++) {
+			previous += readVarLong(data, pos);
+			result[i] = previous;
+		}
+		return result;
+	}
+
+	private static int writeVarLong(byte[] buffer, int pos, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer[pos++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buffer[pos++] = (byte) value;
+		return pos;
+	}
+
+	private static long readVarLong(byte[] data, int[] pos) {
+		long result = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = data[pos[0]++];
+			result |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return result;
+	}
+}
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (c) 2007-2026 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+/**
+ * Scores the similarity of two strings as a percentage. Implementations never
+ * return more than {@link MatchQuality#upperBound(String, String)}.
+ */
+public interface SimilarityMetric {
+
+	public static final String LCS = "lcs";
+	public static final String BIT_PARALLEL = "bitParallel";
+
+	public abstract int similarity(String x, String y);
+
+	/**
+	 * Returns the metric registered with the given name, falling back to the
+	 * default {@link MatchQuality} metric for unknown names.
+	 */
+	public static SimilarityMetric getMetric(String name) {
+		if (BIT_PARALLEL.equals(name)) {
+			return BitParallelQuality::similarity;
+		}
+		return MatchQuality::similarity;
+	}
+}
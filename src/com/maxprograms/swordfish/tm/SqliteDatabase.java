@@ -11,9 +11,11 @@
  *******************************************************************************/
 package com.maxprograms.swordfish.tm;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.System.Logger;
 import java.lang.System.Logger.Level;
 import java.net.URISyntaxException;
@@ -26,29 +28,49 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.Enumeration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableSet;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
-import org.mapdb.Fun;
-import org.mapdb.Fun.Tuple2;
 import org.sqlite.Function;
+import org.sqlite.SQLiteConfig;
 import org.xml.sax.SAXException;
 
 import com.maxprograms.languages.LanguageUtils;
 import com.maxprograms.swordfish.Constants;
+import com.maxprograms.swordfish.PatternCache;
+import com.maxprograms.swordfish.StorageProfile;
 import com.maxprograms.swordfish.TmsServer;
 import com.maxprograms.swordfish.tmx.TMXReader;
 import com.maxprograms.xml.Element;
@@ -59,6 +81,89 @@ public class SqliteDatabase implements ITmEngine {
 
     Logger logger = System.getLogger(SqliteDatabase.class.getName());
 
+    // maximum number of ordinals bound in a single IN (...) clause
+    private static final int BATCHSIZE = 500;
+    // candidates scored per requested match when maxMatches is set
+    private static final int CANDIDATES_PER_MATCH = 20;
+    // TUs written between commits during a TMX import
+    private static final int IMPORT_BATCH = 2000;
+    // parsed TUs waiting for the writer during a TMX import
+    private static final int IMPORT_QUEUE = 4096;
+    // TUs formatted together by one worker during a TMX export
+    private static final int EXPORT_CHUNK = 500;
+
+    // created when TUs are deleted or replaced; removed by maintain()
+    private static final String MAINTENANCE_MARKER = "maintenance.pending";
+
+    // share of free SQLite pages that makes maintenance worthwhile
+    private static final double MAX_FREE_PAGES = 0.2;
+
+    private static final int DEFAULT_MAINTENANCE_LOAD = 50;
+
+    private static final int DEFAULT_COMMIT_DELAY = 500;
+
+    private static final int DEFAULT_COMMIT_OPERATIONS = 100;
+
+    // runs the delayed commits of all memories
+    private static ScheduledExecutorService committer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "memory-commit");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final String TUS_TABLE = """
+            CREATE TABLE tus (
+            id INTEGER PRIMARY KEY,
+            tuid VARCHAR(256) NOT NULL UNIQUE
+            );""";
+    private static final String TUV_TABLE = """
+            CREATE TABLE tuv (
+            tu INTEGER NOT NULL,
+            lang VARCHAR(15) NOT NULL,
+            seg TEXT NOT NULL,
+            puretext TEXT NOT NULL,
+            textlength INTEGER NOT NULL,
+            PRIMARY KEY(tu, lang)
+            );""";
+    private static final String EXACT_TABLE = """
+            CREATE TABLE exact (
+            tu INTEGER NOT NULL,
+            lang VARCHAR(15) NOT NULL,
+            hash INTEGER NOT NULL,
+            lowerhash INTEGER NOT NULL,
+            PRIMARY KEY(tu, lang)
+            );""";
+
+    private record Candidate(long ordinal, String tuid, int count, String pure, String seg, int bound) {
+    }
+
+    private record PreparedTuv(String lang, String seg, String puretext, int[] ngrams, long hash, long lowerHash) {
+    }
+
+    private record PreparedTu(Element tu, Map<String, String> props, List<PreparedTuv> tuvs) {
+    }
+
+    // TU read during an export: a copy of the stored metadata and its languages and segments
+    private record ExportedTu(Element tu, List<String> langs, List<String> segs) {
+    }
+
+    // n-grams of the TUs written since the last flush, in one language
+    private static class PendingIndex {
+        long[] ordinals = new long[64];
+        int[][] ngrams = new int[64][];
+        int count;
+
+        void add(long ordinal, int[] grams) {
+            if (count == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, count * 2);
+                ngrams = Arrays.copyOf(ngrams, count * 2);
+            }
+            ordinals[count] = ordinal;
+            ngrams[count] = grams;
+            count++;
+        }
+    }
+
     private String dbname;
     private File databaseFolder;
     private File database;
@@ -66,17 +171,53 @@ public class SqliteDatabase implements ITmEngine {
     private PreparedStatement storeTUV;
     private PreparedStatement searchTUV;
     private PreparedStatement deleteTUV;
+    private PreparedStatement storeTU;
+    private PreparedStatement searchTU;
+    private PreparedStatement storeExact;
+    private PreparedStatement deleteExact;
     private TuDatabase tuDb;
     private FuzzyIndex fuzzyIndex;
+    private ConcordanceIndex concordance;
     private long next;
     private String currProject;
     private String currSubject;
     private String currCustomer;
-    private FileOutputStream output;
+    private OutputStream output;
     private String creationId;
     private int matchThreshold;
+    private int maxMatches;
+    private SimilarityMetric metric;
+    private String cacheSettings;
+    private int translationThreads;
+    private StorageProfile profile;
+    private int importThreads;
+    private boolean bulkImport;
+    private boolean bulkLoad;
+    private long lastOrdinal;
+    private Set<String> pendingTus = new HashSet<>();
+    private Map<String, PendingIndex> pendingIndex = new HashMap<>();
+    private ForkJoinPool translationPool;
+    private BlockingQueue<Connection> readers;
 
     private TMXReader reader;
+    private volatile int exported;
+    private volatile int exportTotal;
+    private int maintenanceLoad;
+    private boolean fragmented;
+    // TUV deletions, to know if maintenance missed some
+    private long deletions;
+    // n-grams indexed while a rebuild reads its snapshot, by language
+    private Map<String, PendingIndex> rebuildLog;
+    private volatile String maintenanceStep;
+    private volatile long maintenanceDone;
+    private volatile long maintenanceTotal;
+    private int commitDelay;
+    private int commitOperations;
+    private int uncommitted;
+    private ScheduledFuture<?> scheduledCommit;
+    private boolean closed;
+    // held by imports, deletions, commits and maintenance
+    private ReentrantLock writeLock = new ReentrantLock();
 
     public SqliteDatabase(String dbname, String workFolder) throws IOException, SQLException {
         this.dbname = dbname;
@@ -91,6 +232,52 @@ public class SqliteDatabase implements ITmEngine {
         } else {
             matchThreshold = 60;
         }
+        if (json.has("maxMatches")) {
+            maxMatches = json.getInt("maxMatches");
+        } else {
+            // score every candidate and return all matches above the threshold
+            maxMatches = 0;
+        }
+        if (json.has("similarityMetric")) {
+            metric = SimilarityMetric.getMetric(json.getString("similarityMetric"));
+        } else {
+            metric = SimilarityMetric.getMetric(SimilarityMetric.LCS);
+        }
+        // cached matches are only valid for engines with the same settings
+        cacheSettings = maxMatches + "/"
+                + (json.has("similarityMetric") ? json.getString("similarityMetric") : SimilarityMetric.LCS);
+        if (json.has("translationThreads")) {
+            translationThreads = json.getInt("translationThreads");
+        } else {
+            // translate batches on the calling thread
+            translationThreads = 1;
+        }
+        if (json.has("importThreads")) {
+            importThreads = json.getInt("importThreads");
+        } else {
+            importThreads = Runtime.getRuntime().availableProcessors();
+        }
+        if (json.has("bulkImport")) {
+            bulkImport = json.getBoolean("bulkImport");
+        } else {
+            // only imports into empty memories skip indexing each TU
+            bulkImport = false;
+        }
+        if (json.has("maintenanceLoad")) {
+            maintenanceLoad = json.getInt("maintenanceLoad");
+        } else {
+            maintenanceLoad = DEFAULT_MAINTENANCE_LOAD;
+        }
+        if (json.has("commitDelay")) {
+            commitDelay = json.getInt("commitDelay");
+        } else {
+            commitDelay = DEFAULT_COMMIT_DELAY;
+        }
+        if (json.has("commitOperations")) {
+            commitOperations = json.getInt("commitOperations");
+        } else {
+            commitOperations = DEFAULT_COMMIT_OPERATIONS;
+        }
         File wfolder = new File(workFolder);
         databaseFolder = new File(wfolder, dbname);
         if (!databaseFolder.exists()) {
@@ -101,9 +288,12 @@ public class SqliteDatabase implements ITmEngine {
             throw new IOException(mf.format(new String[] { databaseFolder.getName() }));
         }
         database = new File(databaseFolder, "database.db");
+        fragmented = new File(databaseFolder, MAINTENANCE_MARKER).exists();
         boolean sqliteNeedsCreation = !database.exists();
         DriverManager.registerDriver(new org.sqlite.JDBC());
         conn = DriverManager.getConnection("jdbc:sqlite:" + database.getAbsolutePath().replace('\\', '/'));
+        profile = StorageProfile.getProfile(StorageProfile.MEMORIES, dbname);
+        profile.apply(conn, false);
         conn.setAutoCommit(false);
         Function.create(conn, "REGEXP", new Function() {
             @Override
@@ -113,16 +303,13 @@ public class SqliteDatabase implements ITmEngine {
                 if (value == null)
                     value = "";
 
-                Pattern pattern = Pattern.compile(expression);
+                Pattern pattern = PatternCache.get(expression);
                 result(pattern.matcher(value).find() ? 1 : 0);
             }
         });
         if (sqliteNeedsCreation) {
             createTables();
         }
-        storeTUV = conn.prepareStatement("INSERT INTO tuv (tuid, lang, seg, puretext, textlength) VALUES (?,?,?,?,?)");
-        searchTUV = conn.prepareStatement("SELECT textlength FROM tuv WHERE tuid=? AND lang=?");
-        deleteTUV = conn.prepareStatement("DELETE FROM tuv WHERE tuid=? AND lang=?");
         try {
             tuDb = new TuDatabase(databaseFolder);
         } catch (Exception e) {
@@ -137,24 +324,201 @@ public class SqliteDatabase implements ITmEngine {
             MessageFormat mf = new MessageFormat(Messages.getString("SqliteDatabase.2"));
             throw new IOException(mf.format(new String[] { dbname }));
         }
+        if (!sqliteNeedsCreation && !hasTable("tus")) {
+            upgrade();
+        }
+        if (!hasTable("exact")) {
+            buildExactIndex();
+        }
+        if (!hasTable("concordance")) {
+            ConcordanceIndex.build(conn);
+        }
+        concordance = new ConcordanceIndex(conn);
+        if (fuzzyIndex.isRebuilding()) {
+            // the last rebuild did not finish
+            buildIndex();
+        }
+        if (tuDb.hasLegacyData()) {
+            // left behind by an upgrade that was interrupted after its last commit
+            tuDb.dropLegacyData();
+            tuDb.commit();
+        }
+        storeTUV = conn.prepareStatement("INSERT INTO tuv (tu, lang, seg, puretext, textlength) VALUES (?,?,?,?,?)");
+        searchTUV = conn.prepareStatement("SELECT textlength FROM tuv WHERE tu=? AND lang=?");
+        deleteTUV = conn.prepareStatement("DELETE FROM tuv WHERE tu=? AND lang=?");
+        storeTU = conn.prepareStatement("INSERT INTO tus (id, tuid) VALUES (?,?)");
+        searchTU = conn.prepareStatement("SELECT id FROM tus WHERE tuid=?");
+        // ordinals identify TUs in all internal stores; tuids are only used at the API boundary
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT MAX(id) FROM tus")) {
+                if (rs.next()) {
+                    lastOrdinal = rs.getLong(1);
+                }
+            }
+        }
+        storeExact = conn.prepareStatement("INSERT INTO exact (tu, lang, hash, lowerhash) VALUES (?,?,?,?)");
+        deleteExact = conn.prepareStatement("DELETE FROM exact WHERE tu=? AND lang=?");
     }
 
     private void createTables() throws SQLException {
-        String sql = """
-                CREATE TABLE tuv (
-                tuid VARCHAR(256) NOT NULL,
-                lang VARCHAR(15) NOT NULL,
-                seg TEXT NOT NULL,
-                puretext TEXT NOT NULL,
-                textlength INTEGER NOT NULL,
-                PRIMARY KEY(tuid, lang)
-                );""";
         try (Statement stmt = conn.createStatement()) {
-            stmt.execute(sql);
+            stmt.execute(TUS_TABLE);
+            stmt.execute(TUV_TABLE);
         }
         conn.commit();
     }
 
+    private boolean hasTable(String name) throws SQLException {
+        try (PreparedStatement stmt = conn
+                .prepareStatement("SELECT name FROM sqlite_master WHERE type='table' AND name=?")) {
+            stmt.setString(1, name);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * Creates the exact match index, a table with hashes of the trimmed text of
+     * each segment in its original case and in lower case, and fills it with
+     * the segments already stored.
+     */
+    private void buildExactIndex() throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(EXACT_TABLE);
+            stmt.execute("CREATE INDEX exact_hash ON exact (lang, hash)");
+            stmt.execute("CREATE INDEX exact_lowerhash ON exact (lang, lowerhash)");
+            try (PreparedStatement insert = conn
+                    .prepareStatement("INSERT INTO exact (tu, lang, hash, lowerhash) VALUES (?,?,?,?)")) {
+                try (ResultSet rs = stmt.executeQuery("SELECT tu, lang, puretext FROM tuv")) {
+                    while (rs.next()) {
+                        String puretext = rs.getString(3);
+                        insert.setLong(1, rs.getLong(1));
+                        insert.setString(2, rs.getString(2));
+                        insert.setLong(3, exactHash(puretext));
+                        insert.setLong(4, exactHash(puretext.toLowerCase()));
+                        insert.execute();
+                    }
+                }
+            }
+        }
+        conn.commit();
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a text without leading and trailing white space.
+     * Two texts get 100% similarity only when their trimmed forms are equal.
+     */
+    private static long exactHash(String text) {
+        int start = 0;
+        int end = text.length();
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= text.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Converts a memory created by older versions, that identified TUs by their
+     * tuid everywhere, to integer ordinals. TU metadata is moved to the new keys
+     * and the n-gram index is built again from the stored segments.
+     */
+    private void upgrade() throws SQLException, IOException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(TUS_TABLE);
+            stmt.execute("INSERT INTO tus (tuid) SELECT DISTINCT tuid FROM tuv ORDER BY tuid");
+            stmt.execute("ALTER TABLE tuv RENAME TO oldtuv");
+            stmt.execute(TUV_TABLE);
+            stmt.execute("INSERT INTO tuv (tu, lang, seg, puretext, textlength) "
+                    + "SELECT tus.id, oldtuv.lang, oldtuv.seg, oldtuv.puretext, oldtuv.textlength "
+                    + "FROM oldtuv JOIN tus ON tus.tuid=oldtuv.tuid");
+            stmt.execute("DROP TABLE oldtuv");
+            try (ResultSet rs = stmt.executeQuery("SELECT id, tuid FROM tus")) {
+                while (rs.next()) {
+                    tuDb.migrate(rs.getLong(1), rs.getString(2));
+                }
+            }
+            // the old metadata stays until the new tables are committed, so that an
+            // interrupted upgrade can start again
+            tuDb.commit();
+        }
+        fuzzyIndex.clear();
+        buildIndex();
+        conn.commit();
+        tuDb.dropLegacyData();
+        tuDb.commit();
+    }
+
+    /**
+     * Builds the n-gram index of every language again from the stored segments.
+     * The pairs are sorted on disk and each new index replaces the current one
+     * only when it is complete, so searches keep working meanwhile.
+     */
+    private void buildIndex() throws SQLException, IOException {
+        buildIndex(Throttle.NONE);
+    }
+
+    private void buildIndex(Throttle throttle) throws SQLException, IOException {
+        fuzzyIndex.commit();
+        fuzzyIndex.startRebuild();
+        Map<String, File> built = buildIndexFiles(conn, throttle);
+        Iterator<Map.Entry<String, File>> it = built.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, File> entry = it.next();
+            fuzzyIndex.replace(entry.getKey(), entry.getValue());
+        }
+        // searches made while the index was built may lack TUs stored in bulk
+        MatchCache.invalidate(databaseFolder.getAbsolutePath());
+        fuzzyIndex.finishRebuild();
+    }
+
+    /**
+     * Writes a new index file for each language from the segments visible to
+     * the given connection, leaving the current index untouched.
+     */
+    private Map<String, File> buildIndexFiles(Connection connection, Throttle throttle)
+            throws SQLException, IOException {
+        Map<String, File> result = new HashMap<>();
+        List<String> langs = new ArrayList<>();
+        try (Statement stmt = connection.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT DISTINCT lang FROM tuv")) {
+                while (rs.next()) {
+                    langs.add(rs.getString(1));
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM tuv")) {
+                maintenanceTotal = rs.next() ? rs.getLong(1) : 0l;
+            }
+        }
+        maintenanceDone = 0l;
+        Iterator<String> it = langs.iterator();
+        while (it.hasNext()) {
+            String lang = it.next();
+            IndexBuilder builder = new IndexBuilder(databaseFolder, lang);
+            try (PreparedStatement stmt = connection
+                    .prepareStatement("SELECT tu, puretext FROM tuv WHERE lang=? ORDER BY tu")) {
+                stmt.setString(1, lang);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        builder.add(rs.getLong(1), NGrams.getNGrams(rs.getString(2)));
+                        maintenanceDone++;
+                        throttle.step();
+                    }
+                }
+            }
+            result.put(lang, builder.build());
+        }
+        return result;
+    }
+
     @Override
     public JSONArray batchTranslate(JSONObject params)
             throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
@@ -163,6 +527,9 @@ public class SqliteDatabase implements ITmEngine {
         String tgtLang = params.getString("tgtLang");
         JSONArray segments = params.getJSONArray("segments");
         boolean caseSensitiveMatches = params.getBoolean("caseSensitiveMatches");
+        if (translationThreads > 1 && segments.length() > 1) {
+            return parallelTranslate(segments, srcLang, tgtLang, caseSensitiveMatches);
+        }
         for (int i = 0; i < segments.length(); i++) {
             JSONObject json = segments.getJSONObject(i);
             List<Match> matches = searchTranslation(json.getString("pure"), srcLang, tgtLang, matchThreshold,
@@ -177,11 +544,119 @@ public class SqliteDatabase implements ITmEngine {
         return result;
     }
 
+    /**
+     * Splits the segments of a batch in chunks that are translated by the workers
+     * of the translation pool. Each chunk borrows a read-only connection, while
+     * the n-gram index and TU metadata are shared. Results keep the order of the
+     * input.
+     */
+    private JSONArray parallelTranslate(JSONArray segments, String srcLang, String tgtLang, boolean caseSensitive)
+            throws IOException, SAXException, ParserConfigurationException, SQLException {
+        // workers only see committed data; the lock keeps an import batch from
+        // being committed while it is written
+        writeLock.lock();
+        try {
+            sync();
+        } finally {
+            writeLock.unlock();
+        }
+        if (translationPool == null) {
+            translationPool = new ForkJoinPool(translationThreads);
+            readers = new ArrayBlockingQueue<>(translationThreads);
+            for (int i = 0; i < translationThreads; i++) {
+                readers.add(openReader());
+            }
+        }
+        int size = segments.length();
+        JSONObject[] translated = new JSONObject[size];
+        int chunkSize = Math.max(1, (size + translationThreads * 4 - 1) / (translationThreads * 4));
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int from = 0; from < size; from += chunkSize) {
+            int start = from;
+            int end = Math.min(from + chunkSize, size);
+            tasks.add(() -> {
+                Connection reader = readers.take();
+                try {
+                    for (int i = start; i < end; i++) {
+                        JSONObject json = segments.getJSONObject(i);
+                        List<Match> matches = searchTranslation(reader, json.getString("pure"), srcLang, tgtLang,
+                                matchThreshold, caseSensitive);
+                        JSONArray array = new JSONArray();
+                        for (int j = 0; j < matches.size(); j++) {
+                            array.put(matches.get(j).toJSON());
+                        }
+                        json.put("matches", array);
+                        translated[i] = json;
+                    }
+                } finally {
+                    readers.add(reader);
+                }
+                return null;
+            });
+        }
+        try {
+            List<Future<Void>> futures = translationPool.invokeAll(tasks);
+            Iterator<Future<Void>> it = futures.iterator();
+            while (it.hasNext()) {
+                it.next().get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException sqle) {
+                throw sqle;
+            }
+            if (cause instanceof SAXException saxe) {
+                throw saxe;
+            }
+            if (cause instanceof ParserConfigurationException pce) {
+                throw pce;
+            }
+            if (cause instanceof IOException ioe) {
+                throw ioe;
+            }
+            throw new IOException(cause);
+        }
+        JSONArray result = new JSONArray();
+        for (int i = 0; i < size; i++) {
+            result.put(translated[i]);
+        }
+        return result;
+    }
+
     @Override
     public void close() throws IOException, SQLException, URISyntaxException {
+        writeLock.lock();
+        try {
+            closed = true;
+            if (scheduledCommit != null) {
+                scheduledCommit.cancel(false);
+                scheduledCommit = null;
+            }
+            closeAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void closeAll() throws IOException, SQLException {
+        if (translationPool != null) {
+            translationPool.shutdown();
+            Iterator<Connection> it = readers.iterator();
+            while (it.hasNext()) {
+                it.next().close();
+            }
+        }
         storeTUV.close();
         deleteTUV.close();
         searchTUV.close();
+        storeTU.close();
+        storeExact.close();
+        deleteExact.close();
+        searchTU.close();
+        concordance.close();
         conn.commit();
         conn.close();
         fuzzyIndex.commit();
@@ -190,50 +665,111 @@ public class SqliteDatabase implements ITmEngine {
         tuDb.close();
     }
 
+    /**
+     * Commits the stored TUs in groups: the commit is made after the number of
+     * milliseconds set in the "commitDelay" preference or after
+     * "commitOperations" calls, whichever comes first. Until then the TUs are
+     * visible to searches in this memory, which read through the same
+     * connection and maps, and a crash can lose them. A delay of 0 commits
+     * every time. Closing the memory commits all pending TUs.
+     */
     @Override
     public void commit() throws SQLException, IOException, URISyntaxException {
+        writeLock.lock();
+        try {
+            uncommitted++;
+            if (commitDelay <= 0 || uncommitted >= commitOperations) {
+                sync();
+            } else if (scheduledCommit == null) {
+                scheduledCommit = committer.schedule(this::delayedCommit, commitDelay, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void delayedCommit() {
+        writeLock.lock();
+        try {
+            scheduledCommit = null;
+            if (!closed && uncommitted > 0) {
+                sync();
+            }
+        } catch (SQLException | IOException e) {
+            logger.log(Level.ERROR, e.getMessage(), e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Commits SQLite and both maps now.
+     */
+    private void sync() throws SQLException, IOException {
         conn.commit();
         fuzzyIndex.commit();
         tuDb.commit();
+        // the read-only connections only see the TUs now
+        MatchCache.invalidate(databaseFolder.getAbsolutePath());
+        uncommitted = 0;
+        if (scheduledCommit != null) {
+            scheduledCommit.cancel(false);
+            scheduledCommit = null;
+        }
     }
 
     @Override
     public List<Element> concordanceSearch(String searchStr, String srcLang, int limit, boolean isRegexp,
             boolean caseSensitive) throws SQLException, SAXException, IOException, ParserConfigurationException {
         List<Element> result = new Vector<>();
-        Vector<String> candidates = new Vector<>();
+        Map<Long, String> candidates = new LinkedHashMap<>();
+        if (!concordance.hasLanguage(srcLang)) {
+            return result;
+        }
+        String condition;
+        String pattern;
+        String literal;
         if (isRegexp) {
-            try (PreparedStatement stmt = conn
-                    .prepareStatement("SELECT tuid, puretext FROM tuv WHERE lang=? AND puretext REGEXP ? LIMIT ?")) {
-                stmt.setString(1, srcLang);
-                stmt.setString(2, searchStr);
-                stmt.setInt(3, limit);
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        candidates.add(rs.getString(1));
-                    }
-                }
-            }
+            condition = "tuv.puretext REGEXP ?";
+            pattern = searchStr;
+            literal = ConcordanceIndex.requiredLiteral(searchStr);
+        } else if (caseSensitive) {
+            condition = "tuv.puretext GLOB ?";
+            pattern = "*" + searchStr.replace("[", "[[]").replace("*", "[*]").replace("?", "[?]") + "*";
+            literal = searchStr;
         } else {
-            String sql = caseSensitive ? "SELECT tuid, puretext FROM tuv WHERE lang=? AND puretext GLOB ? LIMIT ?"
-                    : "SELECT tuid, puretext FROM tuv WHERE lang=? AND puretext LIKE ? LIMIT ?";
-            String escaped = searchStr.replace("%", "\\%").replace("_", "\\_");
-            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
-                stmt.setString(1, srcLang);
-                stmt.setString(2, caseSensitive ? "*" + escaped + "*" : "%" + escaped + "%");
-                stmt.setInt(3, limit);
-                try (ResultSet rs = stmt.executeQuery()) {
-                    while (rs.next()) {
-                        candidates.add(rs.getString(1));
-                    }
+            condition = "tuv.puretext LIKE ? ESCAPE '\\'";
+            pattern = "%" + searchStr.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+            literal = searchStr;
+        }
+        // the trigram index finds the segments that contain the literal, ignoring
+        // case, and the pattern is checked only against those
+        String match = ConcordanceIndex.matchQuery(literal);
+        String sql = match == null
+                ? "SELECT tuv.tu, tus.tuid FROM tuv JOIN tus ON tus.id=tuv.tu WHERE tuv.lang=? AND " + condition
+                        + " LIMIT ?"
+                : "SELECT tuv.tu, tus.tuid FROM " + ConcordanceIndex.tableName(srcLang)
+                        + " f JOIN tuv ON tuv.tu=f.rowid AND tuv.lang=? JOIN tus ON tus.id=tuv.tu WHERE f.puretext MATCH ? AND "
+                        + condition + " LIMIT ?";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int index = 1;
+            stmt.setString(index++, srcLang);
+            if (match != null) {
+                stmt.setString(index++, match);
+            }
+            stmt.setString(index++, pattern);
+            stmt.setInt(index, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    candidates.put(rs.getLong(1), rs.getString(2));
                 }
             }
         }
 
-        Iterator<String> it = candidates.iterator();
+        Iterator<Map.Entry<Long, String>> it = candidates.entrySet().iterator();
         while (it.hasNext()) {
-            String tuid = it.next();
-            Element tu = getTu(tuid);
+            Map.Entry<Long, String> entry = it.next();
+            Element tu = getTu(entry.getKey(), entry.getValue());
             result.add(tu);
         }
         return result;
@@ -242,6 +778,7 @@ public class SqliteDatabase implements ITmEngine {
     @Override
     public void deleteDatabase() throws IOException {
         TmsServer.deleteFolder(databaseFolder);
+        MatchCache.invalidate(databaseFolder.getAbsolutePath());
     }
 
     private void writeString(String string) throws IOException {
@@ -261,45 +798,157 @@ public class SqliteDatabase implements ITmEngine {
 
     @Override
     public void exportMemory(String tmxfile, Set<String> langs, String srcLang) throws IOException, SQLException {
-        output = new FileOutputStream(tmxfile);
-        writeHeader(srcLang);
-        writeString("<body>\n");
-        try (PreparedStatement stmt = conn.prepareStatement("SELECT lang, seg FROM tuv WHERE tuid=?")) {
-            try (Statement tus = conn.createStatement()) {
-                try (ResultSet tuKeys = tus.executeQuery("SELECT DISTINCT TUID from TUV")) {
-                    while (tuKeys.next()) {
-                        String tuid = tuKeys.getString(1);
-                        Element tu = tuDb.getTu(tuid);
-                        stmt.setString(1, tuid);
-                        int count = 0;
-                        try (ResultSet rs = stmt.executeQuery()) {
-                            while (rs.next()) {
-                                String lang = rs.getString(1);
-                                String seg = rs.getString(2);
-                                if (seg.equals("<seg></seg>") || !langs.contains(lang)) {
-                                    continue;
-                                }
-                                try {
-                                    Element tuv = TMUtils.buildTuv(lang, seg);
-                                    tu.addContent(tuv);
-                                    count++;
-                                } catch (Exception e) {
-                                    logger.log(Level.ERROR, Messages.getString("SqliteDatabase.3"), e);
-                                    logger.log(Level.INFO, "seg: " + seg);
-                                }
+        exported = 0;
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM tus")) {
+                exportTotal = rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+        OutputStream stream = new BufferedOutputStream(new FileOutputStream(tmxfile), 1 << 16);
+        if (tmxfile.toLowerCase().endsWith(".gz")) {
+            stream = new GZIPOutputStream(stream, 1 << 16);
+        }
+        output = stream;
+        // this thread reads the TUs in a single ordered scan and submits them to the
+        // workers in chunks; the writer takes the formatted chunks in the same order
+        ExecutorService workers = Executors.newFixedThreadPool(importThreads);
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        BlockingQueue<Future<byte[]>> queue = new ArrayBlockingQueue<>(importThreads * 2);
+        Future<Void> writing = writer.submit(() -> {
+            while (true) {
+                byte[] chunk = queue.take().get();
+                if (chunk == null) {
+                    return null;
+                }
+                output.write(chunk);
+                exported = Math.min(exported + EXPORT_CHUNK, exportTotal);
+            }
+        });
+        try {
+            writeHeader(srcLang);
+            writeString("<body>\n");
+            String sql = "SELECT tuv.tu, tus.tuid, tuv.lang, tuv.seg FROM tuv JOIN tus ON tus.id=tuv.tu ORDER BY tuv.tu, tuv.lang";
+            try (Statement stmt = conn.createStatement()) {
+                try (ResultSet rs = stmt.executeQuery(sql)) {
+                    List<ExportedTu> chunk = new ArrayList<>();
+                    ExportedTu current = null;
+                    long ordinal = -1l;
+                    while (rs.next()) {
+                        long tu = rs.getLong(1);
+                        if (tu != ordinal) {
+                            ordinal = tu;
+                            if (chunk.size() == EXPORT_CHUNK) {
+                                submitChunk(queue, workers, chunk, writing);
+                                chunk = new ArrayList<>();
                             }
+                            current = new ExportedTu(tuDb.getTu(ordinal, rs.getString(2)), new ArrayList<>(),
+                                    new ArrayList<>());
+                            chunk.add(current);
                         }
-                        if (count >= 2) {
-                            Indenter.indent(tu, 2);
-                            writeString(tu.toString() + "\n");
+                        String lang = rs.getString(3);
+                        String seg = rs.getString(4);
+                        if (seg.equals("<seg></seg>") || !langs.contains(lang)) {
+                            continue;
                         }
+                        current.langs().add(lang);
+                        current.segs().add(seg);
+                    }
+                    if (!chunk.isEmpty()) {
+                        submitChunk(queue, workers, chunk, writing);
                     }
                 }
             }
+            queue.put(CompletableFuture.completedFuture(null));
+            writing.get();
+            exported = exportTotal;
+            writeString("</body>\n");
+            writeString("</tmx>\n");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioe) {
+                throw ioe;
+            }
+            throw new IOException(cause);
+        } finally {
+            writer.shutdownNow();
+            workers.shutdownNow();
+            output.close();
         }
-        writeString("</body>\n");
-        writeString("</tmx>\n");
-        output.close();
+    }
+
+    private void submitChunk(BlockingQueue<Future<byte[]>> queue, ExecutorService workers, List<ExportedTu> chunk,
+            Future<Void> writing) throws InterruptedException, ExecutionException {
+        Future<byte[]> formatted = workers.submit(() -> formatChunk(chunk));
+        // stop reading if the writer failed and no longer takes chunks
+        if (writing.isDone()) {
+            writing.get();
+        }
+        while (!queue.offer(formatted, 1, TimeUnit.SECONDS)) {
+            if (writing.isDone()) {
+                writing.get();
+            }
+        }
+    }
+
+    private byte[] formatChunk(List<ExportedTu> chunk) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < chunk.size(); i++) {
+            ExportedTu exportedTu = chunk.get(i);
+            Element tu = exportedTu.tu();
+            List<String> langs = exportedTu.langs();
+            List<String> segs = exportedTu.segs();
+            int count = 0;
+            for (int j = 0; j < langs.size(); j++) {
+                try {
+                    Element tuv = exportTuv(langs.get(j), segs.get(j));
+                    tu.addContent(tuv);
+                    count++;
+                } catch (Exception e) {
+                    logger.log(Level.ERROR, Messages.getString("SqliteDatabase.3"), e);
+                    logger.log(Level.INFO, "seg: " + segs.get(j));
+                }
+            }
+            if (count >= 2) {
+                Indenter.indent(tu, 2);
+                sb.append(tu.toString());
+                sb.append('\n');
+            }
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Element exportTuv(String lang, String seg)
+            throws SAXException, IOException, ParserConfigurationException {
+        // segments without markup, entities or carriage returns don't need the parser
+        if (seg.startsWith("<seg>") && seg.endsWith("</seg>")) {
+            String text = seg.substring(5, seg.length() - 6);
+            if (text.indexOf('<') == -1 && text.indexOf('&') == -1 && text.indexOf('\r') == -1) {
+                Element tuv = new Element("tuv");
+                tuv.setAttribute("xml:lang", lang);
+                Element e = new Element("seg");
+                e.setText(text);
+                tuv.addContent(e);
+                return tuv;
+            }
+        }
+        return TMUtils.buildTuv(lang, seg);
+    }
+
+    /**
+     * Returns the number of TUs processed by the export in progress.
+     */
+    public int getExported() {
+        return exported;
+    }
+
+    /**
+     * Returns the number of TUs in the memory being exported.
+     */
+    public int getExportTotal() {
+        return exportTotal;
     }
 
     @Override
@@ -338,9 +987,14 @@ public class SqliteDatabase implements ITmEngine {
     @Override
     public Element getTu(String tuid)
             throws IOException, SAXException, ParserConfigurationException, SQLException {
-        Element tu = tuDb.getTu(tuid);
-        try (PreparedStatement stmt = conn.prepareStatement("SELECT lang, seg FROM tuv WHERE tuid=?")) {
-            stmt.setString(1, tuid);
+        return getTu(findOrdinal(tuid), tuid);
+    }
+
+    private Element getTu(long ordinal, String tuid)
+            throws IOException, SAXException, ParserConfigurationException, SQLException {
+        Element tu = tuDb.getTu(ordinal, tuid);
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT lang, seg FROM tuv WHERE tu=?")) {
+            stmt.setLong(1, ordinal);
             try (ResultSet rs = stmt.executeQuery()) {
                 while (rs.next()) {
                     String lang = rs.getString(1);
@@ -364,22 +1018,41 @@ public class SqliteDatabase implements ITmEngine {
     @Override
     public void removeTu(String tuid)
             throws IOException, SAXException, ParserConfigurationException, SQLException, URISyntaxException {
-        Element tu = getTu(tuid);
-        List<Element> tuvs = tu.getChildren("tuv");
-        Iterator<Element> it = tuvs.iterator();
-        while (it.hasNext()) {
-            Element tuv = it.next();
-            String lang = LanguageUtils.normalizeCode(tuv.getAttributeValue("xml:lang"));
-            delete(tuid, lang);
+        writeLock.lock();
+        try {
+            long ordinal = findOrdinal(tuid);
+            Element tu = getTu(ordinal, tuid);
+            List<Element> tuvs = tu.getChildren("tuv");
+            Iterator<Element> it = tuvs.iterator();
+            while (it.hasNext()) {
+                Element tuv = it.next();
+                String lang = LanguageUtils.normalizeCode(tuv.getAttributeValue("xml:lang"));
+                delete(ordinal, lang);
+            }
+            tuDb.remove(ordinal);
+            sync();
+        } finally {
+            writeLock.unlock();
         }
-        tuDb.remove(tuid);
-        commit();
+        MatchCache.invalidate(databaseFolder.getAbsolutePath());
     }
 
-    private void delete(String tuid, String lang) throws SQLException {
-        deleteTUV.setString(1, tuid);
+    private void delete(long ordinal, String lang) throws SQLException, IOException {
+        if (!fragmented) {
+            File marker = new File(databaseFolder, MAINTENANCE_MARKER);
+            if (!marker.exists()) {
+                Files.createFile(marker.toPath());
+            }
+            fragmented = true;
+        }
+        deletions++;
+        deleteTUV.setLong(1, ordinal);
         deleteTUV.setString(2, lang);
         deleteTUV.execute();
+        deleteExact.setLong(1, ordinal);
+        deleteExact.setString(2, lang);
+        deleteExact.execute();
+        concordance.remove(ordinal, lang);
     }
 
     @Override
@@ -392,159 +1065,304 @@ public class SqliteDatabase implements ITmEngine {
         if (size == 0) {
             return result;
         }
-        int min = size * similarity / 100;
-        int max = size * (200 - similarity) / 100;
-
         int minLength = searchStr.length() * similarity / 100;
         int maxLength = searchStr.length() * (200 - similarity) / 100;
 
-        Map<String, Integer> candidates = new Hashtable<>();
-        try (PreparedStatement stmt = conn.prepareStatement(
-                "SELECT puretext FROM tuv WHERE lang=? AND tuid=? AND textlength>=? AND textlength<=?")) {
-            stmt.setString(1, srcLang);
-            stmt.setInt(3, minLength);
-            stmt.setInt(4, maxLength);
-
-            NavigableSet<Fun.Tuple2<Integer, String>> index = fuzzyIndex.getIndex(srcLang);
-            for (int i = 0; i < ngrams.length; i++) {
-                Iterable<String> keys = Fun.filter(index, ngrams[i]);
-                Iterator<String> it = keys.iterator();
-                while (it.hasNext()) {
-                    String tuid = it.next();
-                    if (candidates.containsKey(tuid)) {
-                        int count = candidates.get(tuid);
-                        candidates.put(tuid, count + 1);
-                    } else {
-                        candidates.put(tuid, 1);
-                    }
-                }
-            }
-            Set<String> tuids = candidates.keySet();
-            Iterator<String> it = tuids.iterator();
-            while (it.hasNext()) {
-                String tuid = it.next();
-                int count = candidates.get(tuid);
-                if (count >= min && count <= max) {
-                    stmt.setString(2, tuid);
-                    try (ResultSet rs = stmt.executeQuery()) {
-                        while (rs.next()) {
-                            String pure = rs.getString(1);
-                            int distance;
-                            if (caseSensitive) {
-                                distance = MatchQuality.similarity(searchStr, pure);
-                            } else {
-                                distance = MatchQuality.similarity(searchStr.toLowerCase(), pure.toLowerCase());
-                            }
-                            if (distance >= similarity) {
-                                Element tu = getTu(tuid);
-                                result.add(tu);
-                            }
+        List<Long> candidates = new ArrayList<>(getCandidates(ngrams, srcLang, similarity).keySet());
+        Map<Long, String> accepted = new LinkedHashMap<>();
+        String sql = "SELECT tuv.tu, tus.tuid, tuv.puretext FROM tuv JOIN tus ON tus.id=tuv.tu "
+                + "WHERE tuv.lang=? AND tuv.textlength>=? AND tuv.textlength<=? AND tuv.tu IN ";
+        for (int from = 0; from < candidates.size(); from += BATCHSIZE) {
+            List<Long> chunk = candidates.subList(from, Math.min(from + BATCHSIZE, candidates.size()));
+            try (PreparedStatement stmt = conn.prepareStatement(sql + placeholders(chunk.size()))) {
+                stmt.setString(1, srcLang);
+                stmt.setInt(2, minLength);
+                stmt.setInt(3, maxLength);
+                setLongs(stmt, 4, chunk);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        String pure = rs.getString(3);
+                        int distance;
+                        if (caseSensitive) {
+                            distance = metric.similarity(searchStr, pure);
+                        } else {
+                            distance = metric.similarity(searchStr.toLowerCase(), pure.toLowerCase());
+                        }
+                        if (distance >= similarity) {
+                            accepted.put(rs.getLong(1), rs.getString(2));
                         }
                     }
                 }
             }
         }
+        Map<Long, Element> tus = getTus(accepted);
+        Iterator<Long> it = accepted.keySet().iterator();
+        while (it.hasNext()) {
+            result.add(tus.get(it.next()));
+        }
         return result;
     }
 
     @Override
     public List<Match> searchTranslation(String searchStr, String srcLang, String tgtLang, int similarity,
             boolean caseSensitive) throws SAXException, IOException, ParserConfigurationException, SQLException {
+        return searchTranslation(conn, searchStr, srcLang, tgtLang, similarity, caseSensitive);
+    }
+
+    private List<Match> searchTranslation(Connection connection, String searchStr, String srcLang, String tgtLang,
+            int similarity, boolean caseSensitive)
+            throws SAXException, IOException, ParserConfigurationException, SQLException {
+        String memory = databaseFolder.getAbsolutePath();
+        List<Match> cached = MatchCache.get(memory, cacheSettings, searchStr, srcLang, tgtLang, similarity,
+                caseSensitive);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = MatchCache.getGeneration(memory);
+        List<Match> result = findMatches(connection, searchStr, srcLang, tgtLang, similarity, caseSensitive);
+        MatchCache.put(memory, cacheSettings, searchStr, srcLang, tgtLang, similarity, caseSensitive, generation,
+                result);
+        return result;
+    }
+
+    private List<Match> findMatches(Connection connection, String searchStr, String srcLang, String tgtLang,
+            int similarity, boolean caseSensitive)
+            throws SAXException, IOException, ParserConfigurationException, SQLException {
         // search for TUs with a given source and target language
         List<Match> result = new Vector<>();
 
+        if (similarity == 100 || maxMatches > 0) {
+            // exact matches need no fuzzy search when they are all that was requested
+            List<Match> exact = getExactMatches(connection, searchStr, srcLang, tgtLang, caseSensitive);
+            if (similarity == 100 || exact.size() >= maxMatches) {
+                return exact;
+            }
+        }
+
         int[] ngrams = null;
         ngrams = NGrams.getNGrams(searchStr);
         int size = ngrams.length;
         if (size == 0) {
             return result;
         }
-        int min = size * similarity / 100;
-        int max = size * (200 - similarity) / 100;
-
         int minLength = searchStr.length() * similarity / 100;
         int maxLength = searchStr.length() * (200 - similarity) / 100;
 
-        Hashtable<String, Integer> candidates = new Hashtable<>();
-        try (PreparedStatement stmt = conn.prepareStatement(
-                "SELECT puretext, seg, textlength FROM tuv WHERE lang=? AND tuid=? AND textlength>=? AND textlength<=?")) {
+        Map<Long, Integer> candidates = getCandidates(ngrams, srcLang, similarity);
+        String text = caseSensitive ? searchStr : searchStr.toLowerCase();
+
+        // fetch all candidate sources in chunks, leaving out TUs without a target so
+        // that they can't take the place of valid matches in the ranking below
+        List<Candidate> rows = new ArrayList<>();
+        List<Long> ordinals = new ArrayList<>(candidates.keySet());
+        String sql = "SELECT tuv.tu, tus.tuid, tuv.puretext, tuv.seg FROM tuv JOIN tus ON tus.id=tuv.tu "
+                + "JOIN tuv target ON target.tu=tuv.tu AND target.lang=? WHERE tuv.lang=? AND tuv.textlength>=? AND tuv.textlength<=? AND tuv.tu IN ";
+        for (int from = 0; from < ordinals.size(); from += BATCHSIZE) {
+            List<Long> chunk = ordinals.subList(from, Math.min(from + BATCHSIZE, ordinals.size()));
+            try (PreparedStatement stmt = connection.prepareStatement(sql + placeholders(chunk.size()))) {
+                stmt.setString(1, tgtLang);
+                stmt.setString(2, srcLang);
+                stmt.setInt(3, minLength);
+                stmt.setInt(4, maxLength);
+                setLongs(stmt, 5, chunk);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        long ordinal = rs.getLong(1);
+                        String pure = caseSensitive ? rs.getString(3) : rs.getString(3).toLowerCase();
+                        rows.add(new Candidate(ordinal, rs.getString(2), candidates.get(ordinal), pure, rs.getString(4),
+                                MatchQuality.upperBound(text, pure)));
+                    }
+                }
+            }
+        }
+
+        // score the candidates
+        List<Candidate> accepted = new Vector<>();
+        Map<Long, Integer> distances = new Hashtable<>();
+        PriorityQueue<Integer> best = new PriorityQueue<>();
+        if (maxMatches > 0) {
+            rows = mostPromising(rows, text.length(), maxMatches * CANDIDATES_PER_MATCH);
+            rows.sort((a, b) -> Integer.compare(b.bound(), a.bound()));
+        }
+        Iterator<Candidate> ct = rows.iterator();
+        while (ct.hasNext()) {
+            Candidate candidate = ct.next();
+            if (maxMatches > 0 && best.size() == maxMatches && candidate.bound() < best.peek()) {
+                // no remaining candidate can beat the current top matches
+                break;
+            }
+            int distance = metric.similarity(text, candidate.pure());
+            if (distance >= similarity) {
+                accepted.add(candidate);
+                distances.put(candidate.ordinal(), distance);
+                if (maxMatches > 0) {
+                    best.add(distance);
+                    if (best.size() > maxMatches) {
+                        best.poll();
+                    }
+                }
+            }
+        }
+
+        return buildMatches(connection, accepted, distances, srcLang, tgtLang);
+    }
+
+    /**
+     * Looks up the segments whose trimmed text is equal to the search text
+     * using the exact match index.
+     */
+    private List<Match> getExactMatches(Connection connection, String searchStr, String srcLang, String tgtLang,
+            boolean caseSensitive) throws SAXException, IOException, ParserConfigurationException, SQLException {
+        String text = caseSensitive ? searchStr.trim() : searchStr.toLowerCase().trim();
+        String sql = "SELECT tuv.tu, tus.tuid, tuv.puretext, tuv.seg FROM exact "
+                + "JOIN tuv ON tuv.tu=exact.tu AND tuv.lang=exact.lang JOIN tus ON tus.id=exact.tu WHERE exact.lang=? AND "
+                + (caseSensitive ? "exact.hash=?" : "exact.lowerhash=?");
+        List<Candidate> accepted = new Vector<>();
+        Map<Long, Integer> distances = new Hashtable<>();
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setString(1, srcLang);
-            stmt.setInt(3, minLength);
-            stmt.setInt(4, maxLength);
-
-            try (PreparedStatement stmt2 = conn.prepareStatement("SELECT lang, seg FROM tuv WHERE tuid=? AND lang=?")) {
-                stmt2.setString(2, tgtLang);
-
-                NavigableSet<Fun.Tuple2<Integer, String>> index = fuzzyIndex.getIndex(srcLang);
-                for (int i = 0; i < ngrams.length; i++) {
-                    Iterable<String> keys = Fun.filter(index, ngrams[i]);
-                    Iterator<String> it = keys.iterator();
-                    while (it.hasNext()) {
-                        String tuid = it.next();
-                        if (candidates.containsKey(tuid)) {
-                            int count = candidates.get(tuid);
-                            candidates.put(tuid, count + 1);
-                        } else {
-                            candidates.put(tuid, 1);
-                        }
+            stmt.setLong(2, exactHash(text));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String pure = caseSensitive ? rs.getString(3) : rs.getString(3).toLowerCase();
+                    if (!pure.trim().equals(text)) {
+                        // hash collision
+                        continue;
                     }
+                    long ordinal = rs.getLong(1);
+                    accepted.add(new Candidate(ordinal, rs.getString(2), 0, pure, rs.getString(4), 100));
+                    distances.put(ordinal, 100);
                 }
-                Enumeration<String> tuids = candidates.keys();
-                while (tuids.hasMoreElements()) {
-                    String tuid = tuids.nextElement();
-                    int count = candidates.get(tuid);
-                    if (count >= min && count <= max) {
-                        stmt.setString(2, tuid);
-                        stmt2.setString(1, tuid);
-                        try (ResultSet rs = stmt.executeQuery()) {
-                            while (rs.next()) {
-                                String pure = rs.getString(1);
-                                String srcSeg = rs.getString(2);
-                                int distance;
-                                if (caseSensitive) {
-                                    distance = MatchQuality.similarity(searchStr, pure);
-                                } else {
-                                    distance = MatchQuality.similarity(searchStr.toLowerCase(), pure.toLowerCase());
-                                }
-                                if (distance >= similarity) {
-                                    boolean tgtFound = false;
-                                    Element target = null;
-                                    try (ResultSet rs2 = stmt2.executeQuery()) {
-                                        while (rs2.next()) {
-                                            String lang = rs2.getString(1);
-                                            String seg = rs2.getString(2);
-                                            target = TMUtils.buildTuv(lang, seg);
-                                            tgtFound = true;
-                                        }
-                                    }
-                                    if (tgtFound) {
-                                        Element source = TMUtils.buildTuv(srcLang, srcSeg);
-                                        Map<String, String> propsMap = new Hashtable<>();
-                                        Element tu = getTu(tuid);
-                                        List<Element> props = tu.getChildren("prop");
-                                        Iterator<Element> pt = props.iterator();
-                                        while (pt.hasNext()) {
-                                            Element prop = pt.next();
-                                            propsMap.put(prop.getAttributeValue("type"), prop.getText());
-                                        }
-                                        Match match = new Match(tuid, source, target, distance, dbname, propsMap);
-                                        result.add(match);
-                                    }
-                                }
-                            }
+            }
+        }
+        return buildMatches(connection, accepted, distances, srcLang, tgtLang);
+    }
+
+    private List<Match> buildMatches(Connection connection, List<Candidate> accepted, Map<Long, Integer> distances,
+            String srcLang, String tgtLang) throws SAXException, IOException, ParserConfigurationException, SQLException {
+        List<Match> result = new Vector<>();
+        // load the targets of the accepted sources in chunks
+        List<Long> found = new ArrayList<>();
+        Iterator<Candidate> at = accepted.iterator();
+        while (at.hasNext()) {
+            found.add(at.next().ordinal());
+        }
+        Map<Long, String> targets = getSegments(connection, found, tgtLang);
+        Iterator<Candidate> it = accepted.iterator();
+        while (it.hasNext()) {
+            Candidate candidate = it.next();
+            long ordinal = candidate.ordinal();
+            if (!targets.containsKey(ordinal)) {
+                continue;
+            }
+            String tuid = candidate.tuid();
+            Element source = TMUtils.buildTuv(srcLang, candidate.seg());
+            Element target = TMUtils.buildTuv(tgtLang, targets.get(ordinal));
+            TuRecord record = tuDb.getRecord(ordinal);
+            Map<String, String> propsMap = record != null ? record.getProperties() : new Hashtable<>();
+            Match match = new Match(tuid, source, target, distances.get(ordinal), dbname, propsMap);
+            result.add(match);
+        }
+        Collections.sort(result);
+        if (maxMatches > 0 && result.size() > maxMatches) {
+            result = new Vector<>(result.subList(0, maxMatches));
+        }
+        return result;
+    }
+
+    private static List<Candidate> mostPromising(List<Candidate> rows, int length, int limit) {
+        if (rows.size() <= limit) {
+            return rows;
+        }
+        // more shared n-grams first, then closer length; the head of the queue is the worst kept candidate
+        Comparator<Candidate> promise = Comparator.comparingInt(Candidate::count)
+                .thenComparing(Comparator.comparingInt((Candidate c) -> Math.abs(c.pure().length() - length)).reversed());
+        PriorityQueue<Candidate> queue = new PriorityQueue<>(limit + 1, promise);
+        Iterator<Candidate> it = rows.iterator();
+        while (it.hasNext()) {
+            queue.add(it.next());
+            if (queue.size() > limit) {
+                queue.poll();
+            }
+        }
+        return new ArrayList<>(queue);
+    }
+
+    private Map<Long, Integer> getCandidates(int[] ngrams, String srcLang, int similarity) throws IOException {
+        int size = ngrams.length;
+        int min = size * similarity / 100;
+        int max = size * (200 - similarity) / 100;
+        return fuzzyIndex.getCandidates(srcLang, ngrams, min, max);
+    }
+
+    private static Map<Long, String> getSegments(Connection connection, List<Long> ordinals, String lang)
+            throws SQLException {
+        Map<Long, String> result = new HashMap<>();
+        for (int from = 0; from < ordinals.size(); from += BATCHSIZE) {
+            List<Long> chunk = ordinals.subList(from, Math.min(from + BATCHSIZE, ordinals.size()));
+            try (PreparedStatement stmt = connection
+                    .prepareStatement("SELECT tu, seg FROM tuv WHERE lang=? AND tu IN " + placeholders(chunk.size()))) {
+                stmt.setString(1, lang);
+                setLongs(stmt, 2, chunk);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        result.put(rs.getLong(1), rs.getString(2));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private Map<Long, Element> getTus(Map<Long, String> tuids)
+            throws SQLException, SAXException, IOException, ParserConfigurationException {
+        Map<Long, Element> result = new HashMap<>();
+        Iterator<Map.Entry<Long, String>> it = tuids.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, String> entry = it.next();
+            result.put(entry.getKey(), tuDb.getTu(entry.getKey(), entry.getValue()));
+        }
+        List<Long> ordinals = new ArrayList<>(tuids.keySet());
+        for (int from = 0; from < ordinals.size(); from += BATCHSIZE) {
+            List<Long> chunk = ordinals.subList(from, Math.min(from + BATCHSIZE, ordinals.size()));
+            try (PreparedStatement stmt = conn
+                    .prepareStatement("SELECT tu, lang, seg FROM tuv WHERE tu IN " + placeholders(chunk.size()))) {
+                setLongs(stmt, 1, chunk);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        String seg = rs.getString(3);
+                        if (seg.equals("<seg></seg>")) {
+                            continue;
                         }
+                        result.get(rs.getLong(1)).addContent(TMUtils.buildTuv(rs.getString(2), seg));
                     }
                 }
             }
         }
-        Collections.sort(result);
         return result;
     }
 
+    private static String placeholders(int count) {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('?');
+        }
+        sb.append(')');
+        return sb.toString();
+    }
+
+    private static void setLongs(PreparedStatement stmt, int first, List<Long> values) throws SQLException {
+        for (int i = 0; i < values.size(); i++) {
+            stmt.setLong(first + i, values.get(i));
+        }
+    }
+
     @Override
     public int storeTMX(String tmxFile, String project, String customer, String subject)
             throws SAXException, IOException, ParserConfigurationException, SQLException, URISyntaxException {
-        int imported = 0;
         next = 0l;
         if (customer == null) {
             customer = "";
@@ -555,32 +1373,118 @@ public class SqliteDatabase implements ITmEngine {
         if (project == null) {
             project = "";
         }
+        writeLock.lock();
+        try {
+            return importTMX(tmxFile, project, customer, subject);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private int importTMX(String tmxFile, String project, String customer, String subject)
+            throws SAXException, IOException, ParserConfigurationException, SQLException, URISyntaxException {
         currProject = project;
         currSubject = subject;
         currCustomer = customer;
+        // new memories are seeded without updating the index for each TU, unless
+        // maintenance is rebuilding it: only TUs that go through the pending index
+        // are logged for the rebuild, and two builds can't run at the same time
+        bulkLoad = (bulkImport || lastOrdinal == 0) && rebuildLog == null;
 
-        reader = new TMXReader(this);
-        reader.parse(new File(tmxFile).toURI().toURL());
-        imported = reader.getCount();
-        commit();
-        return imported;
+        // the parser submits each TU to the workers and queues the pending result in
+        // document order; this thread takes the results and writes them in batches
+        ExecutorService workers = Executors.newFixedThreadPool(importThreads);
+        ExecutorService parser = Executors.newSingleThreadExecutor();
+        BlockingQueue<Future<PreparedTu>> queue = new ArrayBlockingQueue<>(IMPORT_QUEUE);
+        reader = new TMXReader(tu -> queue.put(workers.submit(() -> prepareTu(tu))));
+        Future<Void> parsing = parser.submit(() -> {
+            try {
+                reader.parse(new File(tmxFile).toURI().toURL());
+            } finally {
+                queue.put(CompletableFuture.completedFuture(null));
+            }
+            return null;
+        });
+        boolean written = false;
+        try {
+            int pending = 0;
+            while (true) {
+                PreparedTu prepared = null;
+                try {
+                    prepared = queue.take().get();
+                } catch (ExecutionException e) {
+                    logger.log(Level.WARNING, e.getCause().getMessage(), e.getCause());
+                    continue;
+                }
+                if (prepared == null) {
+                    break;
+                }
+                try {
+                    writeTu(prepared);
+                    written = true;
+                } catch (IOException | SQLException e) {
+                    MessageFormat mf = new MessageFormat(Messages.getString("SqliteDatabase.4"));
+                    logger.log(Level.WARNING, mf.format(new String[] { prepared.tu().toString() }), e);
+                }
+                pending++;
+                if (pending == IMPORT_BATCH) {
+                    flush();
+                    sync();
+                    pending = 0;
+                }
+            }
+            flush();
+            sync();
+            parsing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SAXException saxe) {
+                throw saxe;
+            }
+            if (cause instanceof ParserConfigurationException pce) {
+                throw pce;
+            }
+            if (cause instanceof IOException ioe) {
+                throw ioe;
+            }
+            throw new IOException(cause);
+        } finally {
+            parser.shutdownNow();
+            workers.shutdownNow();
+            try {
+                // TUs stored before a failure are not in the index either
+                if (bulkLoad && written) {
+                    flush();
+                    sync();
+                    buildIndex();
+                }
+            } finally {
+                bulkLoad = false;
+            }
+        }
+        return reader.getCount();
     }
 
     @Override
     public void storeTu(Element tu) throws IOException, SQLException, URISyntaxException {
-        Set<String> tuLangs = Collections.synchronizedSortedSet(new TreeSet<>());
-        List<Element> tuvs = tu.getChildren("tuv");
-        String tuid = tu.getAttributeValue("tuid");
-        if (tuid.isEmpty()) {
-            tuid = nextId();
-            tu.setAttribute("tuid", tuid);
+        writeLock.lock();
+        try {
+            writeTu(prepareTu(tu));
+            flush();
+        } finally {
+            writeLock.unlock();
         }
-        Element oldTu = tuDb.getTu(tuid);
-        tu.setAttribute("creationdate",
-                oldTu.hasAttribute("creationdate") ? oldTu.getAttributeValue("creationdate") : TMUtils.creationDate());
-        tu.setAttribute("creationid",
-                oldTu.hasAttribute("creationid") ? oldTu.getAttributeValue("creationid") : creationId);
+    }
 
+    /**
+     * Does the work of storing a TU that needs no access to the database: adds
+     * the properties of the current import and extracts the text, n-grams and
+     * hashes of its segments. Safe to call from several threads.
+     */
+    private PreparedTu prepareTu(Element tu) {
         Hashtable<String, String> props = new Hashtable<>();
         List<Element> properties = tu.getChildren("prop");
         Iterator<Element> kt = properties.iterator();
@@ -597,10 +1501,6 @@ public class SqliteDatabase implements ITmEngine {
             tu.setChildren(content);
             props.put(prop.getAttributeValue("type"), prop.getText());
         }
-        String sub = props.get("subject");
-        if (sub != null) {
-            tuDb.storeSubject(sub);
-        }
         if (currCustomer != null && !currCustomer.isEmpty() && !props.containsKey("customer")) {
             Element prop = new Element("prop");
             prop.setAttribute("type", "customer");
@@ -610,10 +1510,6 @@ public class SqliteDatabase implements ITmEngine {
             tu.setChildren(content);
             props.put(prop.getAttributeValue("type"), prop.getText());
         }
-        String cust = props.get("customer");
-        if (cust != null) {
-            tuDb.storeCustomer(cust);
-        }
         if (currProject != null && !currProject.isEmpty() && !props.containsKey("project")) {
             Element prop = new Element("prop");
             prop.setAttribute("type", "project");
@@ -623,47 +1519,140 @@ public class SqliteDatabase implements ITmEngine {
             tu.setChildren(content);
             props.put(prop.getAttributeValue("type"), prop.getText());
         }
+
+        List<PreparedTuv> prepared = new ArrayList<>();
+        List<Element> tuvs = tu.getChildren("tuv");
+        Iterator<Element> it = tuvs.iterator();
+        while (it.hasNext()) {
+            Element tuv = it.next();
+            Element seg = tuv.getChild("seg");
+            String puretext = TMUtils.extractText(seg);
+            int[] ngrams = bulkLoad ? null : NGrams.getNGrams(puretext);
+            prepared.add(new PreparedTuv(tuv.getAttributeValue("xml:lang"), seg.toString(), puretext, ngrams,
+                    exactHash(puretext), exactHash(puretext.toLowerCase())));
+        }
+        return new PreparedTu(tu, props, prepared);
+    }
+
+    /**
+     * Adds a prepared TU to the pending batch. Rows are written and indexed by
+     * {@link #flush()}.
+     */
+    private void writeTu(PreparedTu prepared) throws IOException, SQLException {
+        Element tu = prepared.tu();
+        String tuid = tu.getAttributeValue("tuid");
+        if (tuid.isEmpty()) {
+            tuid = nextId();
+            tu.setAttribute("tuid", tuid);
+        }
+        if (pendingTus.contains(tuid)) {
+            // updates of a TU must see its pending rows
+            flush();
+        }
+        long ordinal = findOrdinal(tuid);
+        boolean isNew = ordinal == -1;
+        if (isNew) {
+            ordinal = ++lastOrdinal;
+            storeTU.setLong(1, ordinal);
+            storeTU.setString(2, tuid);
+            storeTU.addBatch();
+        }
+        TuRecord oldTu = tuDb.getRecord(ordinal);
+        String creationDate = oldTu != null ? oldTu.getAttribute("creationdate") : null;
+        tu.setAttribute("creationdate", creationDate != null ? creationDate : TMUtils.creationDate());
+        String oldCreationId = oldTu != null ? oldTu.getAttribute("creationid") : null;
+        tu.setAttribute("creationid", oldCreationId != null ? oldCreationId : creationId);
+
+        Map<String, String> props = prepared.props();
+        String sub = props.get("subject");
+        if (sub != null) {
+            tuDb.storeSubject(sub);
+        }
+        String cust = props.get("customer");
+        if (cust != null) {
+            tuDb.storeCustomer(cust);
+        }
         String proj = props.get("project");
         if (proj != null) {
             tuDb.storeProject(proj);
         }
 
-        storeTUV.setString(1, tuid);
-
-        Iterator<Element> it = tuvs.iterator();
+        Set<String> tuLangs = new TreeSet<>();
+        Iterator<PreparedTuv> it = prepared.tuvs().iterator();
         while (it.hasNext()) {
-            Element tuv = it.next();
-            String lang = LanguageUtils.normalizeCode(tuv.getAttributeValue("xml:lang"));
+            PreparedTuv tuv = it.next();
+            String lang = LanguageUtils.normalizeCode(tuv.lang());
             if (lang != null && !tuLangs.contains(lang)) {
-                if (exists(tuid, lang)) {
-                    delete(tuid, lang);
+                if (!isNew && exists(ordinal, lang)) {
+                    delete(ordinal, lang);
                     tu.setAttribute("changedate", TMUtils.creationDate());
                     tu.setAttribute("changeid", creationId);
                 }
-                Element seg = tuv.getChild("seg");
-                String puretext = TMUtils.extractText(seg);
-                if (puretext.isEmpty()) {
+                if (tuv.puretext().isEmpty()) {
                     continue;
                 }
+                storeTUV.setLong(1, ordinal);
                 storeTUV.setString(2, lang);
-                storeTUV.setString(3, seg.toString());
-                storeTUV.setString(4, puretext);
-                storeTUV.setInt(5, puretext.length());
-                storeTUV.execute();
+                storeTUV.setString(3, tuv.seg());
+                storeTUV.setString(4, tuv.puretext());
+                storeTUV.setInt(5, tuv.puretext().length());
+                storeTUV.addBatch();
+                storeExact.setLong(1, ordinal);
+                storeExact.setString(2, lang);
+                storeExact.setLong(3, tuv.hash());
+                storeExact.setLong(4, tuv.lowerHash());
+                storeExact.addBatch();
+                concordance.add(ordinal, lang, tuv.puretext());
                 tuLangs.add(lang);
 
-                tuDb.store(tuid, tu);
+                if (bulkLoad) {
+                    // indexed when the import ends
+                    continue;
+                }
+                PendingIndex index = pendingIndex.get(lang);
+                if (index == null) {
+                    index = new PendingIndex();
+                    pendingIndex.put(lang, index);
+                }
+                index.add(ordinal, tuv.ngrams());
+            }
+        }
+        if (!tuLangs.isEmpty()) {
+            tuDb.store(ordinal, tu);
+        }
+        pendingTus.add(tuid);
+    }
 
-                int[] ngrams = NGrams.getNGrams(puretext);
-                NavigableSet<Fun.Tuple2<Integer, String>> index = fuzzyIndex.getIndex(lang);
-                for (int i = 0; i < ngrams.length; i++) {
-                    Tuple2<Integer, String> entry = Fun.t2(ngrams[i], tuid);
-                    if (!index.contains(entry)) {
-                        index.add(entry);
-                    }
+    /**
+     * Writes the pending rows and adds their n-grams to the fuzzy index.
+     */
+    private void flush() throws IOException, SQLException {
+        if (pendingTus.isEmpty()) {
+            return;
+        }
+        storeTU.executeBatch();
+        storeTUV.executeBatch();
+        storeExact.executeBatch();
+        concordance.flush();
+        Iterator<Map.Entry<String, PendingIndex>> it = pendingIndex.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, PendingIndex> entry = it.next();
+            PendingIndex index = entry.getValue();
+            fuzzyIndex.add(entry.getKey(), index.ordinals, index.ngrams, index.count);
+            if (rebuildLog != null) {
+                PendingIndex logged = rebuildLog.get(entry.getKey());
+                if (logged == null) {
+                    logged = new PendingIndex();
+                    rebuildLog.put(entry.getKey(), logged);
+                }
+                for (int i = 0; i < index.count; i++) {
+                    logged.add(index.ordinals[i], index.ngrams[i]);
                 }
             }
         }
+        pendingIndex.clear();
+        pendingTus.clear();
+        MatchCache.invalidate(databaseFolder.getAbsolutePath());
     }
 
     private String nextId() {
@@ -673,8 +1662,21 @@ public class SqliteDatabase implements ITmEngine {
         return "" + next++;
     }
 
-    private boolean exists(String tuid, String lang) throws SQLException {
-        searchTUV.setString(1, tuid);
+    /**
+     * Returns the ordinal of a TU, or -1 if it was never stored.
+     */
+    private long findOrdinal(String tuid) throws SQLException {
+        searchTU.setString(1, tuid);
+        try (ResultSet rs = searchTU.executeQuery()) {
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+        }
+        return -1;
+    }
+
+    private boolean exists(long ordinal, String lang) throws SQLException {
+        searchTUV.setLong(1, ordinal);
         searchTUV.setString(2, lang);
         boolean found = false;
         try (ResultSet rs = searchTUV.executeQuery()) {
@@ -685,6 +1687,194 @@ public class SqliteDatabase implements ITmEngine {
         return found;
     }
 
+    /**
+     * Returns true if TUs of a memory that is not open were deleted or replaced
+     * since its last maintenance, without opening it.
+     */
+    public static boolean isFragmented(String workFolder, String dbname) {
+        return new File(new File(workFolder, dbname), MAINTENANCE_MARKER).exists();
+    }
+
+    /**
+     * Returns true if TUs were deleted or replaced since the last maintenance
+     * or if too many pages of the SQLite file are free.
+     */
+    public boolean needsMaintenance() throws SQLException {
+        if (fragmented) {
+            return true;
+        }
+        try (Statement stmt = conn.createStatement()) {
+            long free = 0l;
+            long pages = 0l;
+            try (ResultSet rs = stmt.executeQuery("PRAGMA freelist_count")) {
+                if (rs.next()) {
+                    free = rs.getLong(1);
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("PRAGMA page_count")) {
+                if (rs.next()) {
+                    pages = rs.getLong(1);
+                }
+            }
+            return pages > 0 && free > pages * MAX_FREE_PAGES;
+        }
+    }
+
+    /**
+     * Removes the space left by deleted and replaced TUs: rebuilds the fuzzy
+     * index, merges the concordance index, compacts the TU metadata and
+     * rewrites the SQLite file. The index is read at the pace set by the
+     * "maintenanceLoad" preference. In WAL mode the index is built from a
+     * snapshot while imports and deletions go on, and they only wait while the
+     * new index replaces the current one and during the other steps.
+     */
+    public void maintain() throws SQLException, IOException {
+        long pending;
+        try {
+            maintenanceStep = "index";
+            writeLock.lock();
+            try {
+                flush();
+                sync();
+                pending = deletions;
+                if (!isWal()) {
+                    // a long read on another connection would block commits
+                    buildIndex(new Throttle(maintenanceLoad));
+                }
+            } finally {
+                writeLock.unlock();
+            }
+            if (isWal()) {
+                rebuildIndex(new Throttle(maintenanceLoad));
+            }
+            writeLock.lock();
+            try {
+                flush();
+                sync();
+                maintenanceStep = "concordance";
+                concordance.optimize();
+                conn.commit();
+                maintenanceStep = "metadata";
+                tuDb.compact();
+                maintenanceStep = "database";
+                sync();
+                vacuum();
+                if (deletions == pending) {
+                    Files.deleteIfExists(new File(databaseFolder, MAINTENANCE_MARKER).toPath());
+                    fragmented = false;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            maintenanceStep = null;
+        }
+    }
+
+    /**
+     * Builds the fuzzy index from a read-only snapshot without holding the write
+     * lock. The n-grams of TUs stored meanwhile are logged by {@link #flush()}
+     * and added again to the new index once it replaces the current one.
+     */
+    private void rebuildIndex(Throttle throttle) throws SQLException, IOException {
+        Connection snapshot;
+        writeLock.lock();
+        try {
+            fuzzyIndex.commit();
+            fuzzyIndex.startRebuild();
+            rebuildLog = new HashMap<>();
+            snapshot = openReader();
+        } catch (SQLException e) {
+            rebuildLog = null;
+            throw e;
+        } finally {
+            writeLock.unlock();
+        }
+        try {
+            Map<String, File> built;
+            try {
+                built = buildIndexFiles(snapshot, throttle);
+            } finally {
+                snapshot.close();
+            }
+            writeLock.lock();
+            try {
+                flush();
+                Iterator<Map.Entry<String, File>> it = built.entrySet().iterator();
+                while (it.hasNext()) {
+                    Map.Entry<String, File> entry = it.next();
+                    fuzzyIndex.replace(entry.getKey(), entry.getValue());
+                }
+                Iterator<Map.Entry<String, PendingIndex>> lt = rebuildLog.entrySet().iterator();
+                while (lt.hasNext()) {
+                    Map.Entry<String, PendingIndex> entry = lt.next();
+                    PendingIndex index = entry.getValue();
+                    fuzzyIndex.add(entry.getKey(), index.ordinals, index.ngrams, index.count);
+                }
+                sync();
+                fuzzyIndex.finishRebuild();
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            writeLock.lock();
+            try {
+                rebuildLog = null;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    // VACUUM fails on a connection that has statements in progress, like the
+    // searches that share the main connection, so it gets a connection of its
+    // own; if a search still holds the file it is left for the next pass
+    private void vacuum() {
+        try (Connection connection = DriverManager
+                .getConnection("jdbc:sqlite:" + database.getAbsolutePath().replace('\\', '/'))) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("VACUUM");
+            }
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, e.getMessage(), e);
+        }
+    }
+
+    private Connection openReader() throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        Connection reader = config.createConnection("jdbc:sqlite:" + database.getAbsolutePath().replace('\\', '/'));
+        profile.apply(reader, true);
+        return reader;
+    }
+
+    private boolean isWal() throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery("PRAGMA journal_mode")) {
+                return rs.next() && "wal".equalsIgnoreCase(rs.getString(1));
+            }
+        }
+    }
+
+    /**
+     * Returns the step that maintenance is running, or null when it is not
+     * running.
+     */
+    public String getMaintenanceStep() {
+        return maintenanceStep;
+    }
+
+    /**
+     * Returns the number of segments indexed by the last index rebuild.
+     */
+    public long getMaintenanceDone() {
+        return maintenanceDone;
+    }
+
+    public long getMaintenanceTotal() {
+        return maintenanceTotal;
+    }
+
     public int getCount() {
         if (reader != null) {
             return reader.getCount();
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2007-2026 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Slows down a background task so that it works at most the given percentage
+ * of the time, leaving the disk to searches and imports.
+ */
+class Throttle {
+
+	static final Throttle NONE = new Throttle(100);
+
+	// steps done between pauses
+	private static final int STEPS = 1000;
+
+	private int load;
+	private int steps;
+	private long since;
+
+	Throttle(int load) {
+		this.load = Math.max(1, Math.min(100, load));
+		since = System.nanoTime();
+	}
+
+	/**
+	 * Counts a step of the task and sleeps after every {@value #STEPS} steps
+	 * in proportion to the time spent working on them.
+	 */
+	void step() throws IOException {
+		if (load == 100 || ++steps < STEPS) {
+			return;
+		}
+		steps = 0;
+		long busy = System.nanoTime() - since;
+		try {
+			TimeUnit.NANOSECONDS.sleep(busy * (100 - load) / load);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		since = System.nanoTime();
+	}
+}
@@ -13,31 +13,60 @@
 package com.maxprograms.swordfish.tm;
 
 import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
-import java.util.Vector;
 
 import com.maxprograms.xml.Element;
 
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.HTreeMap;
+import org.mapdb.Serializer;
 
 public class TuDatabase {
 
+	// TUs copied between commits when moving elements to records
+	private static final int MIGRATION_BATCH = 10000;
+
 	private DB mapdb;
-	private HTreeMap<Integer, Element> tumap;
+	private HTreeMap<Long, byte[]> tumap;
 	private Set<String> projects;
 	private Set<String> subjects;
 	private Set<String> customers;
 
 	public TuDatabase(File folder) {
 		mapdb = DBMaker.newFileDB(new File(folder, "tudata")).closeOnJvmShutdown().make();
-		tumap = mapdb.getHashMap("tuvmap");
+		tumap = mapdb.createHashMap("turecords").keySerializer(Serializer.LONG)
+				.valueSerializer(Serializer.BYTE_ARRAY).makeOrGet();
+		if (mapdb.exists("tumap")) {
+			migrateElements();
+		}
 		projects = mapdb.getHashSet("projects");
 		subjects = mapdb.getHashSet("subjects");
 		customers = mapdb.getHashSet("customers");
 	}
 
+	/**
+	 * Encodes the elements stored by older versions. The old map is deleted
+	 * after all its TUs are copied, so an interrupted migration starts again.
+	 */
+	private void migrateElements() {
+		HTreeMap<Long, Element> elements = mapdb.getHashMap("tumap");
+		int count = 0;
+		Iterator<Map.Entry<Long, Element>> it = elements.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Long, Element> entry = it.next();
+			tumap.put(entry.getKey(), TuRecord.encode(entry.getValue()));
+			if (++count % MIGRATION_BATCH == 0) {
+				mapdb.commit();
+			}
+		}
+		mapdb.delete("tumap");
+		mapdb.commit();
+		mapdb.compact();
+	}
+
 	public synchronized void commit() {
 		mapdb.commit();
 	}
@@ -50,21 +79,53 @@ public class TuDatabase {
 		mapdb.close();
 	}
 
-	public synchronized void store(String tuid, Element tu) {
-		tu.removeChild("tuv");
-		if (tu.getChildren().isEmpty()) {
-			tu.setContent(new Vector<>());
+	/**
+	 * Returns true if the TUs are still stored in the map of older versions,
+	 * keyed by the hash code of their tuid.
+	 */
+	public boolean hasLegacyData() {
+		return mapdb.exists("tuvmap");
+	}
+
+	/**
+	 * Moves a TU from the map of older versions to its ordinal.
+	 */
+	public void migrate(long ordinal, String tuid) {
+		HTreeMap<Integer, Element> legacy = mapdb.getHashMap("tuvmap");
+		Element tu = legacy.get(tuid.hashCode());
+		if (tu != null) {
+			tumap.put(ordinal, TuRecord.encode(tu));
 		}
-		tumap.put(tuid.hashCode(), tu);
 	}
 
-	public Element getTu(String tuid) {
-		Element result = tumap.get(tuid.hashCode());
-		if (result == null) {
-			result = new Element("tu");
+	public void dropLegacyData() {
+		mapdb.delete("tuvmap");
+	}
+
+	public synchronized void store(long ordinal, Element tu) {
+		tumap.put(ordinal, TuRecord.encode(tu));
+	}
+
+	/**
+	 * Returns a new element with the attributes and properties of a TU.
+	 */
+	public Element getTu(long ordinal, String tuid) {
+		byte[] data = tumap.get(ordinal);
+		if (data == null) {
+			Element result = new Element("tu");
 			result.setAttribute("id", tuid);
+			return result;
 		}
-		return result;
+		return new TuRecord(data).toElement();
+	}
+
+	/**
+	 * Returns the stored form of a TU, to read single attributes or
+	 * properties, or null if the TU has no metadata.
+	 */
+	TuRecord getRecord(long ordinal) {
+		byte[] data = tumap.get(ordinal);
+		return data != null ? new TuRecord(data) : null;
 	}
 
 	public void rollback() {
@@ -95,11 +156,11 @@ public class TuDatabase {
 		return subjects;
 	}
 
-	public Set<Integer> getKeys() {
+	public Set<Long> getKeys() {
 		return tumap.keySet();
 	}
 
-	public void remove(String tuid) {
-		tumap.remove(tuid.hashCode());
+	public void remove(long ordinal) {
+		tumap.remove(ordinal);
 	}
 }
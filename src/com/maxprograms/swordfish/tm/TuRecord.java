@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Copyright (c) 2007-2026 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tm;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.maxprograms.xml.Attribute;
+import com.maxprograms.xml.Element;
+import com.maxprograms.xml.TextNode;
+import com.maxprograms.xml.XMLNode;
+
+/**
+ * Binary form of the attributes, properties and notes of a TU, without its
+ * TUVs. An element is written as its name, a varint count of attributes
+ * followed by their names and values, and a varint count of text and element
+ * nodes. Strings are written as a varint code: a code greater than zero is a
+ * position in {@link #TABLE} and zero is followed by the varint length and
+ * the UTF-8 bytes of the string. Single attributes and properties can be read
+ * without decoding the rest of the record.
+ */
+class TuRecord {
+
+	private static final byte VERSION = 1;
+	private static final byte TEXT = 0;
+	private static final byte ELEMENT = 1;
+
+	// codes are stored in memories; append new entries, never reorder
+	private static final String[] TABLE = { "tu", "tuid", "creationdate", "creationid", "changedate", "changeid",
+			"usagecount", "lastusagedate", "srclang", "datatype", "segtype", "o-tmf", "o-encoding", "creationtool",
+			"creationtoolversion", "xml:lang", "prop", "note", "type", "subject", "customer", "project", "id" };
+	private static final Map<String, Integer> CODES = new HashMap<>();
+
+	static {
+		for (int i = 0; i < TABLE.length; i++) {
+			CODES.put(TABLE[i], i + 1);
+		}
+	}
+
+	private byte[] data;
+
+	TuRecord(byte[] data) {
+		this.data = data;
+	}
+
+	/**
+	 * Encodes a TU, leaving out its TUVs and the whitespace between its
+	 * children.
+	 */
+	static byte[] encode(Element tu) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		out.write(VERSION);
+		writeString(out, tu.getName());
+		writeAttributes(out, tu);
+		List<Element> children = tu.getChildren();
+		int count = 0;
+		Iterator<Element> it = children.iterator();
+		while (it.hasNext()) {
+			if (!"tuv".equals(it.next().getName())) {
+				count++;
+			}
+		}
+		writeVarInt(out, count);
+		it = children.iterator();
+		while (it.hasNext()) {
+			Element child = it.next();
+			if (!"tuv".equals(child.getName())) {
+				out.write(ELEMENT);
+				writeElement(out, child);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns the value of an attribute of the TU, or null if it is not set.
+	 */
+	String getAttribute(String name) {
+		int[] pos = { 1 };
+		skipString(pos);
+		int count = readVarInt(pos);
+		for (int i = 0; i < count; i++) {
+			if (matches(pos, name)) {
+				return readString(pos);
+			}
+			skipString(pos);
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the text of the "prop" elements of the TU, by type.
+	 */
+	Map<String, String> getProperties() {
+		Map<String, String> result = new Hashtable<>();
+		int[] pos = { 1 };
+		skipString(pos);
+		skipAttributes(pos);
+		int count = readVarInt(pos);
+		for (int i = 0; i < count; i++) {
+			if (data[pos[0]++] == TEXT) {
+				skipString(pos);
+				continue;
+			}
+			if (!matches(pos, "prop")) {
+				skipAttributes(pos);
+				skipContent(pos);
+				continue;
+			}
+			String type = "";
+			int attributes = readVarInt(pos);
+			for (int j = 0; j < attributes; j++) {
+				if (matches(pos, "type")) {
+					type = readString(pos);
+				} else {
+					skipString(pos);
+				}
+			}
+			StringBuilder text = new StringBuilder();
+			int nodes = readVarInt(pos);
+			for (int j = 0; j < nodes; j++) {
+				if (data[pos[0]++] == TEXT) {
+					text.append(readString(pos));
+				} else {
+					skipString(pos);
+					skipAttributes(pos);
+					skipContent(pos);
+				}
+			}
+			result.put(type, text.toString());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a new element with the decoded TU.
+	 */
+	Element toElement() {
+		return readElement(new int[] { 1 });
+	}
+
+	private static void writeElement(ByteArrayOutputStream out, Element e) {
+		writeString(out, e.getName());
+		writeAttributes(out, e);
+		List<XMLNode> content = e.getContent();
+		int count = 0;
+		Iterator<XMLNode> it = content.iterator();
+		while (it.hasNext()) {
+			XMLNode node = it.next();
+			if (node instanceof Element || node instanceof TextNode) {
+				count++;
+			}
+		}
+		writeVarInt(out, count);
+		it = content.iterator();
+		while (it.hasNext()) {
+			XMLNode node = it.next();
+			if (node instanceof Element child) {
+				out.write(ELEMENT);
+				writeElement(out, child);
+			} else if (node instanceof TextNode text) {
+				out.write(TEXT);
+				writeString(out, text.getText());
+			}
+		}
+	}
+
+	private static void writeAttributes(ByteArrayOutputStream out, Element e) {
+		List<Attribute> attributes = e.getAttributes();
+		writeVarInt(out, attributes.size());
+		Iterator<Attribute> it = attributes.iterator();
+		while (it.hasNext()) {
+			Attribute a = it.next();
+			writeString(out, a.getName());
+			writeString(out, a.getValue());
+		}
+	}
+
+	private static void writeString(ByteArrayOutputStream out, String string) {
+		Integer code = CODES.get(string);
+		if (code != null) {
+			writeVarInt(out, code);
+			return;
+		}
+		writeVarInt(out, 0);
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		writeVarInt(out, bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private static void writeVarInt(ByteArrayOutputStream out, int value) {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	private Element readElement(int[] pos) {
+		Element e = new Element(readString(pos));
+		int attributes = readVarInt(pos);
+		for (int i = 0; i < attributes; i++) {
+			String name = readString(pos);
+			e.setAttribute(name, readString(pos));
+		}
+		int count = readVarInt(pos);
+		for (int i = 0; i < count; i++) {
+			if (data[pos[0]++] == TEXT) {
+				e.addContent(new TextNode(readString(pos)));
+			} else {
+				e.addContent(readElement(pos));
+			}
+		}
+		return e;
+	}
+
+	// compares the string at pos with a name and moves past it
+	private boolean matches(int[] pos, String name) {
+		int start = pos[0];
+		int code = readVarInt(pos);
+		if (code > 0) {
+			return TABLE[code - 1].equals(name);
+		}
+		pos[0] = start;
+		return readString(pos).equals(name);
+	}
+
+	private String readString(int[] pos) {
+		int code = readVarInt(pos);
+		if (code > 0) {
+			return TABLE[code - 1];
+		}
+		int length = readVarInt(pos);
+		String result = new String(data, pos[0], length, StandardCharsets.UTF_8);
+		pos[0] += length;
+		return result;
+	}
+
+	private void skipString(int[] pos) {
+		if (readVarInt(pos) == 0) {
+			int length = readVarInt(pos);
+			pos[0] += length;
+		}
+	}
+
+	private void skipAttributes(int[] pos) {
+		int count = readVarInt(pos);
+		for (int i = 0; i < count; i++) {
+			skipString(pos);
+			skipString(pos);
+		}
+	}
+
+	private void skipContent(int[] pos) {
+		int count = readVarInt(pos);
+		for (int i = 0; i < count; i++) {
+			if (data[pos[0]++] == TEXT) {
+				skipString(pos);
+			} else {
+				skipString(pos);
+				skipAttributes(pos);
+				skipContent(pos);
+			}
+		}
+	}
+
+	private int readVarInt(int[] pos) {
+		int result = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = data[pos[0]++];
+			result |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return result;
+	}
+}
@@ -40,12 +40,18 @@ class TMXContentHandler implements IContentHandler {
 	private boolean inCDATA = false;
 	private int count;
 	private ITmEngine db;
+	private TuListener listener;
 
 	public TMXContentHandler(ITmEngine tmEngine) {
 		db = tmEngine;
 		stack = new ConcurrentLinkedDeque<>();
 	}
 
+	public TMXContentHandler(TuListener listener) {
+		this.listener = listener;
+		stack = new ConcurrentLinkedDeque<>();
+	}
+
 	@Override
 	public void characters(char[] ch, int start, int length) throws SAXException {
 		if (!inCDATA && current != null) {
@@ -60,7 +66,17 @@ class TMXContentHandler implements IContentHandler {
 
 	@Override
 	public void endElement(String uri, String localName, String qName) throws SAXException {
-		if (localName.equals("tu")) {
+		if (localName.equals("tu") && listener != null) {
+			try {
+				listener.tuParsed(current);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SAXException(e);
+			}
+			count++;
+			current = null;
+			stack.clear();
+		} else if (localName.equals("tu")) {
 			try {
 				db.storeTu(current);
 				if (count % 500 == 0) {
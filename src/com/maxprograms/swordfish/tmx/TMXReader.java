@@ -34,6 +34,13 @@ public class TMXReader {
 		builder.setContentHandler(handler);
 	}
 
+	public TMXReader(TuListener listener) {
+		handler = new TMXContentHandler(listener);
+		builder = new SAXBuilder();
+		builder.setEntityResolver(new TMXResolver());
+		builder.setContentHandler(handler);
+	}
+
 	public void parse(URL url) throws IOException, SAXException, ParserConfigurationException {
 		builder.build(url);
 	}
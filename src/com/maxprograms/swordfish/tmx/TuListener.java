@@ -0,0 +1,24 @@
+/*******************************************************************************
+ * Copyright (c) 2007-2026 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.tmx;
+
+import com.maxprograms.xml.Element;
+
+/**
+ * Receives each TU as soon as it has been parsed. Implementations may block
+ * to slow down the parser.
+ */
+public interface TuListener {
+
+	public abstract void tuParsed(Element tu) throws InterruptedException;
+}
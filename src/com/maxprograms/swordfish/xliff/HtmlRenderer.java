@@ -0,0 +1,465 @@
+/*******************************************************************************
+ * Copyright (c) 2007-2026 Maxprograms.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 1.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/org/documents/epl-v10.html
+ *
+ * Contributors:
+ *     Maxprograms - initial API and implementation
+ *******************************************************************************/
+
+package com.maxprograms.swordfish.xliff;
+
+import java.io.IOException;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+import org.json.JSONObject;
+
+import com.maxprograms.swordfish.PatternCache;
+import com.maxprograms.swordfish.TmsServer;
+import com.maxprograms.xml.Element;
+import com.maxprograms.xml.TextNode;
+import com.maxprograms.xml.XMLNode;
+import com.maxprograms.xml.XMLUtils;
+
+/**
+ * Converts the inline elements of a source or target to HTML, replacing tags
+ * with numbered images. Tags are numbered in the order they are rendered, so
+ * a source and its target must be rendered by the same instance for the
+ * target to reuse the numbers of the source. Instances are not shared between
+ * threads.
+ */
+class HtmlRenderer {
+
+	// stands for the images folder in stored renderings
+	private static final String STORED_IMAGES = "swordfish:images/";
+
+	private Map<String, String> tagsMap;
+	private int tag;
+
+	HtmlRenderer() {
+		tagsMap = new Hashtable<>();
+		tag = 1;
+	}
+
+	/**
+	 * Numbers the next tags from 1 again, keeping the images already assigned.
+	 */
+	void restart() {
+		tag = 1;
+	}
+
+	/**
+	 * Returns the highest tag number rendered so far.
+	 */
+	int getTagCount() {
+		return tag - 1;
+	}
+
+	/**
+	 * Returns a rendering that doesn't depend on the location of the work
+	 * folder, to be kept in the project database.
+	 */
+	static String store(String html) throws IOException {
+		return html.replace(getImagesUrl(), STORED_IMAGES);
+	}
+
+	/**
+	 * Returns a stored rendering with the images of the current work folder.
+	 */
+	static String restore(String html) throws IOException {
+		return html.replace(STORED_IMAGES, getImagesUrl());
+	}
+
+	private static String getImagesUrl() throws IOException {
+		return TmsServer.getWorkFolder().toURI().toURL().toString() + "images/";
+	}
+
+	String addHtmlTags(Element seg, JSONObject originalData) throws IOException {
+		if (seg == null) {
+			return "";
+		}
+		List<XMLNode> list = seg.getContent();
+		Iterator<XMLNode> it = list.iterator();
+		StringBuilder text = new StringBuilder();
+		while (it.hasNext()) {
+			XMLNode o = it.next();
+			if (o.getNodeType() == XMLNode.TEXT_NODE) {
+				text.append(XliffUtils.cleanString(((TextNode) o).getText()));
+			} else if (o.getNodeType() == XMLNode.ELEMENT_NODE) {
+				// paired: <pc>, <mrk>,
+				Element e = (Element) o;
+				String type = e.getName();
+				if (type.equals("pc")) {
+					String id = e.getAttributeValue("id");
+					if (!tagsMap.containsKey("pc" + id)) {
+						XliffUtils.checkSVG(tag);
+						String header = e.getHead();
+						StringBuilder sb = new StringBuilder();
+						sb.append("<img data-ref='");
+						sb.append(id);
+						sb.append("' data-id='");
+						sb.append(tag);
+						sb.append("' src='");
+						sb.append(getImagesUrl());
+						sb.append(tag++);
+						sb.append(".svg' align='bottom' alt='' title=\"");
+						sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(header)));
+						sb.append("\"/>");
+						tagsMap.put("pc" + id, sb.toString());
+					}
+					text.append(tagsMap.get("pc" + id));
+					text.append(addHtmlTags(e, originalData));
+					if (!tagsMap.containsKey("/pc" + id)) {
+						XliffUtils.checkSVG(tag);
+						String tail = "</pc>";
+						StringBuilder sb = new StringBuilder();
+						sb.append("<img data-ref='/");
+						sb.append(e.getAttributeValue("id"));
+						sb.append("' data-id='");
+						sb.append(tag);
+						sb.append("' src='");
+						sb.append(getImagesUrl());
+						sb.append(tag++);
+						sb.append(".svg' align='bottom' alt='' title=\"");
+						sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(tail)));
+						sb.append("\"/>");
+						tagsMap.put("/pc" + id, sb.toString());
+					}
+					text.append("/" + tagsMap.get(e.getName() + id));
+				} else if (type.equals("mrk")) {
+					String id = e.getAttributeValue("id");
+					if (!"term".equals(e.getAttributeValue("type"))) {
+						if (!tagsMap.containsKey("mrk" + id)) {
+							XliffUtils.checkSVG(tag);
+							String header = e.getHead();
+							StringBuilder sb = new StringBuilder();
+							sb.append("<img data-ref='");
+							sb.append(id);
+							sb.append("' data-id='");
+							sb.append(tag);
+							sb.append("' src='");
+							sb.append(getImagesUrl());
+							sb.append(tag++);
+							sb.append(".svg' align='bottom' alt='' title=\"");
+							sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(header)));
+							sb.append("\"/>");
+							tagsMap.put("mrk" + id, sb.toString());
+						}
+						text.append(tagsMap.get(e.getName() + id));
+						text.append("<span " + XliffUtils.STYLE + ">");
+					} else {
+						text.append("<span " + XliffUtils.STYLE + " title=\""
+								+ XliffUtils.unquote(e.getAttributeValue("value")) + "\">");
+					}
+					text.append(e.getText());
+					text.append("</span>");
+					if (!"term".equals(e.getAttributeValue("type"))) {
+						if (!tagsMap.containsKey("/mrk" + id)) {
+							XliffUtils.checkSVG(tag);
+							String tail = "</mrk>";
+							StringBuilder sb = new StringBuilder();
+							sb.append("<img data-ref='/");
+							sb.append(e.getAttributeValue("id"));
+							sb.append("' data-id='");
+							sb.append(tag);
+							sb.append("' src='");
+							sb.append(getImagesUrl());
+							sb.append(tag++);
+							sb.append(".svg' align='bottom' alt='' title=\"");
+							sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(tail)));
+							sb.append("\"/>");
+							tagsMap.put("/mrk" + id, sb.toString());
+						}
+						text.append(tagsMap.get("/mrk" + id));
+					}
+				} else if (type.equals("cp")) {
+					// empty - special case
+					String hex = "cp" + e.getAttributeValue("hex");
+					if (!tagsMap.containsKey(hex)) {
+						XliffUtils.checkSVG(tag);
+						StringBuilder sb = new StringBuilder();
+						sb.append("<img data-ref='");
+						sb.append(hex);
+						sb.append("' data-id='");
+						sb.append(tag);
+						sb.append("' src='");
+						sb.append(getImagesUrl());
+						sb.append(tag++);
+						sb.append(".svg' align='bottom' alt='' title=\"");
+						sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(e.toString())));
+						sb.append("\"/>");
+						tagsMap.put(hex, sb.toString());
+					}
+					text.append(tagsMap.get(hex));
+				} else {
+					// empty: <ph>, <sc>, <ec>, <sm> and <em>.
+					String key = e.getName() + e.getAttributeValue("id");
+					if (!tagsMap.containsKey(key)) {
+						String dataRef = e.getAttributeValue("dataRef");
+						if (dataRef.isEmpty()) {
+							dataRef = e.getAttributeValue("id");
+						}
+						XliffUtils.checkSVG(tag);
+						StringBuilder sb = new StringBuilder();
+						sb.append("<img data-ref='");
+						sb.append(dataRef);
+						sb.append("' data-id='");
+						sb.append(tag);
+						sb.append("' src='");
+						sb.append(getImagesUrl());
+						sb.append(tag++);
+						sb.append(".svg' align='bottom' alt='' title=\"");
+						String title = "";
+						if (originalData.has(dataRef)) {
+							title = originalData.getString(dataRef);
+						}
+						sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(title)));
+						sb.append("\"/>");
+						tagsMap.put(key, sb.toString());
+					}
+					text.append(tagsMap.get(key));
+				}
+			}
+		}
+		return text.toString();
+	}
+
+	String addHtmlTags(Element seg, String filterText, boolean caseSensitive, boolean regExp,
+			JSONObject originalData, boolean preserve) throws IOException {
+		if (seg == null) {
+			return "";
+		}
+		List<XMLNode> list = seg.getContent();
+		Iterator<XMLNode> it = list.iterator();
+		StringBuilder text = new StringBuilder();
+		while (it.hasNext()) {
+			XMLNode o = it.next();
+			if (o.getNodeType() == XMLNode.TEXT_NODE) {
+				if (filterText == null || filterText.isEmpty()) {
+					text.append(XliffUtils.cleanString(((TextNode) o).getText()));
+				} else {
+					if (regExp) {
+						String s = ((TextNode) o).getText();
+						Matcher matcher = PatternCache.get(filterText).matcher(s);
+						if (matcher.find()) {
+							StringBuilder sb = new StringBuilder();
+							int lastEnd = 0;
+							do {
+								int start = matcher.start();
+								int end = matcher.end();
+								sb.append(XliffUtils.cleanString(s.substring(lastEnd, start)));
+								if (end > start) {
+									sb.append("<span " + XliffUtils.STYLE + ">");
+									sb.append(XliffUtils.cleanString(s.substring(start, end)));
+									sb.append("</span>");
+								}
+								lastEnd = end;
+							} while (matcher.find());
+							sb.append(XliffUtils.cleanString(s.substring(lastEnd)));
+							text.append(sb.toString());
+						} else {
+							text.append(XliffUtils.cleanString(s));
+						}
+					} else {
+						String s = XliffUtils.cleanString(((TextNode) o).getText());
+						String t = XliffUtils.cleanString(filterText);
+						if (caseSensitive) {
+							if (s.indexOf(t) != -1) {
+								text.append(XliffUtils.highlight(s, t, caseSensitive));
+							} else {
+								text.append(s);
+							}
+						} else {
+							if (s.toLowerCase().indexOf(t.toLowerCase()) != -1) {
+								text.append(XliffUtils.highlight(s, t, caseSensitive));
+							} else {
+								text.append(s);
+							}
+						}
+					}
+				}
+			} else if (o.getNodeType() == XMLNode.ELEMENT_NODE) {
+				text.append(inline2html((Element) o, originalData));
+			}
+		}
+		return preserve ? XliffUtils.highlightSpaces(text.toString()) : text.toString().trim();
+	}
+
+	private String inline2html(Element e, JSONObject originalData) throws IOException {
+		// empty: <cp>, <ph>, <sc>, <ec>, <sm> and <em>.
+		// paired: <pc>, <mrk>,
+		StringBuilder text = new StringBuilder();
+		String type = e.getName();
+		if (type.equals("pc")) {
+			String id = e.getAttributeValue("id");
+			if (!tagsMap.containsKey("pc" + id)) {
+				XliffUtils.checkSVG(tag);
+				String header = e.getHead();
+				StringBuilder sb = new StringBuilder();
+				sb.append("<img data-ref='");
+				sb.append(id);
+				sb.append("' data-id='");
+				sb.append(tag);
+				sb.append("' src='");
+				sb.append(getImagesUrl());
+				sb.append(tag++);
+				sb.append(".svg' align='bottom' alt='' title=\"");
+				sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(header)));
+				sb.append("\"/>");
+				tagsMap.put("pc" + id, sb.toString());
+			}
+			text.append(tagsMap.get("pc" + id));
+			List<XMLNode> content = e.getContent();
+			Iterator<XMLNode> it = content.iterator();
+			while (it.hasNext()) {
+				XMLNode node = it.next();
+				if (node.getNodeType() == XMLNode.TEXT_NODE) {
+					String s = ((TextNode) node).getText();
+					text.append(XMLUtils.cleanText(s));
+				}
+				if (node.getNodeType() == XMLNode.ELEMENT_NODE) {
+					text.append(inline2html((Element) node, originalData));
+				}
+			}
+			if (!tagsMap.containsKey("/pc" + id)) {
+				XliffUtils.checkSVG(tag);
+				StringBuilder sb = new StringBuilder();
+				sb.append("<img data-ref='/");
+				sb.append(e.getAttributeValue("id"));
+				sb.append("' data-id='");
+				sb.append(tag);
+				sb.append("' src='");
+				sb.append(getImagesUrl());
+				sb.append(tag++);
+				sb.append(".svg' align='bottom' alt='' title=\"");
+				sb.append(XliffUtils.unquote(XliffUtils.cleanAngles("</pc>")));
+				sb.append("\"/>");
+				tagsMap.put("/pc" + id, sb.toString());
+			}
+			text.append(tagsMap.get("/pc" + id));
+		} else if (type.equals("mrk")) {
+			String id = e.getAttributeValue("id");
+			boolean isTerm = e.getAttributeValue("type").equals("term");
+			if (!isTerm) {
+				if (!tagsMap.containsKey("mrk" + id)) {
+					XliffUtils.checkSVG(tag);
+					String header = e.getHead();
+					StringBuilder sb = new StringBuilder();
+					sb.append("<img data-ref='");
+					sb.append(id);
+					sb.append("' data-id='");
+					sb.append(tag);
+					sb.append("' src='");
+					sb.append(getImagesUrl());
+					sb.append(tag++);
+					sb.append(".svg' align='bottom' alt='' title=\"");
+					sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(header)));
+					sb.append("\"/>");
+					tagsMap.put("mrk" + id, sb.toString());
+				}
+				text.append(tagsMap.get(e.getName() + id));
+				text.append("<span " + XliffUtils.STYLE + ">");
+			} else {
+				text.append("<span " + XliffUtils.STYLE + " title=\"" + e.getAttributeValue("value") + "\">");
+			}
+			List<XMLNode> content = e.getContent();
+			Iterator<XMLNode> it = content.iterator();
+			while (it.hasNext()) {
+				XMLNode node = it.next();
+				if (node.getNodeType() == XMLNode.TEXT_NODE) {
+					String s = ((TextNode) node).getText();
+					text.append(XMLUtils.cleanText(s));
+				}
+				if (node.getNodeType() == XMLNode.ELEMENT_NODE) {
+					text.append(inline2html((Element) node, originalData));
+				}
+			}
+			text.append("</span>");
+			if (!isTerm) {
+				if (!tagsMap.containsKey("/mrk" + id)) {
+					XliffUtils.checkSVG(tag);
+					StringBuilder sb = new StringBuilder();
+					sb.append("<img data-ref='/");
+					sb.append(e.getAttributeValue("id"));
+					sb.append("' data-id='");
+					sb.append(tag);
+					sb.append("' src='");
+					sb.append(getImagesUrl());
+					sb.append(tag++);
+					sb.append(".svg' align='bottom' alt='' title=\"");
+					sb.append(XliffUtils.unquote(XliffUtils.cleanAngles("</mrk>")));
+					sb.append("\"/>");
+					tagsMap.put("/mrk" + id, sb.toString());
+				}
+				text.append(tagsMap.get("/mrk" + id));
+			}
+		} else if (type.equals("cp")) {
+			String hex = "cp" + e.getAttributeValue("hex");
+			if (!tagsMap.containsKey(hex)) {
+				XliffUtils.checkSVG(tag);
+				StringBuilder sb = new StringBuilder();
+				sb.append("<img data-ref='");
+				sb.append(hex);
+				sb.append("' data-id='");
+				sb.append(tag);
+				sb.append("' src='");
+				sb.append(getImagesUrl());
+				sb.append(tag++);
+				sb.append(".svg' align='bottom' alt='' title=\"");
+				sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(e.toString())));
+				sb.append("\"/>");
+				tagsMap.put(hex, sb.toString());
+			}
+			text.append(tagsMap.get(hex));
+		} else if ("ph".equals(type)) {
+			String id = e.getAttributeValue("id");
+			if (!tagsMap.containsKey("ph" + id)) {
+				XliffUtils.checkSVG(tag);
+				String title = originalData.has(id) ? originalData.getString(id) : e.toString();
+				StringBuilder sb = new StringBuilder();
+				sb.append("<img data-ref='");
+				sb.append(id);
+				sb.append("' data-id='");
+				sb.append(tag);
+				sb.append("' src='");
+				sb.append(getImagesUrl());
+				sb.append(tag++);
+				sb.append(".svg' align='bottom' alt='' title=\"");
+				sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(title)));
+				sb.append("\"/>");
+				tagsMap.put("ph" + id, sb.toString());
+			}
+			text.append(tagsMap.get("ph" + id));
+		} else {
+			String dataRef = e.getAttributeValue("dataRef");
+			if (!tagsMap.containsKey(dataRef)) {
+				XliffUtils.checkSVG(tag);
+				StringBuilder sb = new StringBuilder();
+				sb.append("<img data-ref='");
+				sb.append(dataRef);
+				sb.append("' data-id='");
+				sb.append(tag);
+				sb.append("' src='");
+				sb.append(getImagesUrl());
+				sb.append(tag++);
+				sb.append(".svg' align='bottom' alt='' title=\"");
+				String title = "";
+				if (originalData.has(dataRef)) {
+					title = originalData.getString(dataRef);
+				}
+				sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(title)));
+				sb.append("\"/>");
+				tagsMap.put(dataRef, sb.toString());
+			}
+			text.append(tagsMap.get(dataRef));
+		}
+		return text.toString();
+	}
+}
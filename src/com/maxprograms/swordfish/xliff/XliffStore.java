@@ -36,13 +36,16 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
 import java.util.Vector;
-import java.util.regex.Matcher;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import java.util.zip.DataFormatException;
@@ -54,6 +57,7 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.jsoup.Jsoup;
 import org.sqlite.Function;
+import org.sqlite.SQLiteConfig;
 import org.xml.sax.SAXException;
 
 import com.maxprograms.converters.Join;
@@ -64,8 +68,11 @@ import com.maxprograms.languages.LanguageUtils;
 import com.maxprograms.stats.RepetitionAnalysis;
 import com.maxprograms.stats.SvgStats;
 import com.maxprograms.swordfish.Constants;
+import com.maxprograms.swordfish.FederatedSearch;
 import com.maxprograms.swordfish.GlossariesHandler;
 import com.maxprograms.swordfish.MemoriesHandler;
+import com.maxprograms.swordfish.PatternCache;
+import com.maxprograms.swordfish.StorageProfile;
 import com.maxprograms.swordfish.TmsServer;
 import com.maxprograms.swordfish.am.MatchAssembler;
 import com.maxprograms.swordfish.am.Term;
@@ -95,6 +102,10 @@ public class XliffStore {
 	public static final int MAXTERMLENGTH = 5;
 	public static final int BATCHSIZE = 100;
 
+	// filtered renderings kept in memory; unfiltered ones are stored in the database
+	private static final int RENDERINGS = 2000;
+	private static final int READERS = 4;
+
 	public static final String SVG_BLANK = "<svg xmlns='http://www.w3.org/2000/svg' height='24' viewBox='0 0 24 24' width='24'></svg>";
 	public static final String SVG_UNTRANSLATED = "<svg xmlns:svg='http://www.w3.org/2000/svg' height='24' viewBox='0 0 24 24' width='24' version='1.1'><path d='M 19,5 V 19 H 5 V 5 H 19 M 19,3 H 5 C 3.9,3 3,3.9 3,5 v 14 c 0,1.1 0.9,2 2,2 h 14 c 1.1,0 2,-0.9 2,-2 V 5 C 21,3.9 20.1,3 19,3 Z' /></svg>";
 	public static final String SVG_TRANSLATED = "<svg xmlns='http://www.w3.org/2000/svg' height='24' viewBox='0 0 24 24' width='24'><g><path d='M19,5v14H5V5H19 M19,3H5C3.9,3,3,3.9,3,5v14c0,1.1,0.9,2,2,2h14c1.1,0,2-0.9,2-2V5C21,3.9,20.1,3,19,3L19,3z'/><path d='M14,17H7v-2h7V17z M17,13H7v-2h10V13z M17,9H7V7h10V9z'/></g></svg>";
@@ -108,6 +119,9 @@ public class XliffStore {
 
 	private File database;
 	private Connection conn;
+	// read-only connections for the queries of the editor, null without WAL
+	private BlockingQueue<Connection> readers;
+	private volatile boolean closed;
 	private PreparedStatement insertUnit;
 	private PreparedStatement insertFile;
 	private PreparedStatement insertSegmentStmt;
@@ -127,6 +141,10 @@ public class XliffStore {
 	private PreparedStatement checkTerm;
 	private PreparedStatement insertNoteStmt;
 	private PreparedStatement getSegment;
+	private PreparedStatement getErrorsData;
+	private PreparedStatement updateErrorsStmt;
+	private PreparedStatement insertRendered;
+	private PreparedStatement deleteRendered;
 	private PreparedStatement getChild;
 	private PreparedStatement getContext;
 	private PreparedStatement insertMetadata;
@@ -153,12 +171,23 @@ public class XliffStore {
 	private String srcLang;
 	private String tgtLang;
 
-	private int tag;
-	private Map<String, String> tagsMap;
 	private Map<String, Element> notesMap;
 
-	private static Pattern pattern;
-	private static String lastFilterText;
+	private record Rendering(String source, String target, int tags) {
+	}
+
+	private record RenderingKey(String file, String unit, String segment, String source, String target,
+			String filterText, boolean caseSensitive, boolean regExp) {
+	}
+
+	private Map<RenderingKey, Rendering> renderings = new LinkedHashMap<>(256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<RenderingKey, Rendering> eldest) {
+			return size() > RENDERINGS;
+		}
+	};
 
 	public XliffStore(String xliffFile, String sourceLang, String targetLang)
 			throws SAXException, IOException, ParserConfigurationException, URISyntaxException, SQLException {
@@ -186,19 +215,10 @@ public class XliffStore {
 		DriverManager.registerDriver(new org.sqlite.JDBC());
 		conn = DriverManager
 				.getConnection("jdbc:sqlite:" + database.getAbsolutePath().replace('\\', '/') + "/database.db");
+		StorageProfile profile = StorageProfile.getProfile(StorageProfile.PROJECTS, xliff.getParentFile().getName());
+		profile.apply(conn, false);
 		conn.setAutoCommit(false);
-		Function.create(conn, "REGEXP", new Function() {
-			@Override
-			protected void xFunc() throws SQLException {
-				String expression = value_text(0);
-				String value = value_text(1);
-				if (value == null) {
-					value = "";
-				}
-				Pattern pat = Pattern.compile(expression);
-				result(pat.matcher(value).find() ? 1 : 0);
-			}
-		});
+		addRegExp(conn);
 		if (needsLoading) {
 			createTables();
 		}
@@ -240,6 +260,46 @@ public class XliffStore {
 			}
 			conn.commit();
 		}
+		sql = "PRAGMA table_info(segments);";
+		boolean errorsExist = false;
+		try (Statement st = conn.createStatement()) {
+			try (ResultSet rs = st.executeQuery(sql)) {
+				while (rs.next()) {
+					if ("tagErrors".equals(rs.getString(2))) {
+						errorsExist = true;
+						break;
+					}
+				}
+			}
+		}
+		if (!errorsExist) {
+			try (Statement st = conn.createStatement()) {
+				st.execute("ALTER TABLE segments ADD COLUMN tagErrors CHAR(1) NOT NULL DEFAULT 'N';");
+				st.execute("ALTER TABLE segments ADD COLUMN spaceErrors CHAR(1) NOT NULL DEFAULT 'N';");
+			}
+			conn.commit();
+			sql = "UPDATE segments SET tagErrors=?, spaceErrors=? WHERE file=? AND unitId=? AND segId=? AND type='S';";
+			try (PreparedStatement prep = conn.prepareStatement(sql)) {
+				sql = "SELECT file, unitId, segId, source, target FROM segments WHERE type='S';";
+				try (Statement st = conn.createStatement()) {
+					try (ResultSet rs = st.executeQuery(sql)) {
+						while (rs.next()) {
+							Element source = XliffUtils.buildElement(rs.getString(4));
+							String tgt = rs.getString(5);
+							Element target = tgt == null || tgt.isBlank() ? emptyTarget(source)
+									: XliffUtils.buildElement(tgt);
+							prep.setString(1, hasTagErrors(source, target) ? "Y" : "N");
+							prep.setString(2, hasSpaceErrors(source, target) ? "Y" : "N");
+							prep.setString(3, rs.getString(1));
+							prep.setString(4, rs.getString(2));
+							prep.setString(5, rs.getString(3));
+							prep.execute();
+						}
+					}
+				}
+			}
+			conn.commit();
+		}
 		sql = "PRAGMA table_info(metadata);";
 		boolean metadataExists = false;
 		try (Statement st = conn.createStatement()) {
@@ -307,6 +367,7 @@ public class XliffStore {
 			conn.commit();
 		}
 		
+		createRenderedTable();
 		getUnitData = conn.prepareStatement("SELECT data, compressed FROM units WHERE file=? AND unitId=?");
 		getSource = conn.prepareStatement(
 				"SELECT source, sourceText, state, translate FROM segments WHERE file=? AND unitId=? AND segId=?");
@@ -329,6 +390,13 @@ public class XliffStore {
 		checkTerm = conn
 				.prepareStatement("SELECT target FROM terms WHERE file=? AND unitId=? AND segId=? AND termid=?");
 		getSegment = conn.prepareStatement("SELECT source, target FROM segments WHERE file=? AND unitId=? AND segId=?");
+		getErrorsData = conn.prepareStatement(
+				"SELECT source, target FROM segments WHERE file=? AND unitId=? AND segId=? AND type='S'");
+		updateErrorsStmt = conn.prepareStatement(
+				"UPDATE segments SET tagErrors=?, spaceErrors=? WHERE file=? AND unitId=? AND segId=? AND type='S'");
+		insertRendered = conn.prepareStatement(
+				"INSERT OR REPLACE INTO rendered (file, unitId, segId, source, target, tags) SELECT ?,?,?,?,?,? WHERE EXISTS (SELECT 1 FROM segments WHERE file=? AND unitId=? AND segId=? AND type='S' AND source=? AND target IS ?)");
+		deleteRendered = conn.prepareStatement("DELETE FROM rendered WHERE file=? AND unitId=? AND segId=?");
 		getChild = conn.prepareStatement("SELECT child FROM segments WHERE file=? AND unitId=? AND segId=?");
 		getContext = conn.prepareStatement("SELECT unitId, segId FROM segments WHERE file=? AND child=?");
 		insertMetadata = conn
@@ -343,6 +411,104 @@ public class XliffStore {
 		} else if (!filesDataExists) {
 			harvestFilesData();
 		}
+		createSegmentIndexes();
+		createReaders(profile);
+	}
+
+	private static void addRegExp(Connection connection) throws SQLException {
+		Function.create(connection, "REGEXP", new Function() {
+			@Override
+			protected void xFunc() throws SQLException {
+				String expression = value_text(0);
+				String value = value_text(1);
+				if (value == null) {
+					value = "";
+				}
+				Pattern pat = PatternCache.get(expression);
+				result(pat.matcher(value).find() ? 1 : 0);
+			}
+		});
+	}
+
+	/**
+	 * Opens the read-only connections used by {@link #getSegments}, the notes,
+	 * matches, status and statistics queries. Edits keep going through the
+	 * single writer connection, serialized by the synchronized methods of this
+	 * class, and readers see the last committed state without waiting for them.
+	 * Only WAL allows that; with other journal modes a reader would block the
+	 * commits of the writer, so reads stay on the writer connection and run under
+	 * the monitor of the store like the edits.
+	 */
+	private void createReaders(StorageProfile profile) throws SQLException {
+		conn.commit();
+		String journalMode = "";
+		try (Statement st = conn.createStatement()) {
+			try (ResultSet rs = st.executeQuery("PRAGMA journal_mode")) {
+				if (rs.next()) {
+					journalMode = rs.getString(1);
+				}
+			}
+		}
+		if (!"wal".equalsIgnoreCase(journalMode)) {
+			return;
+		}
+		readers = new ArrayBlockingQueue<>(READERS);
+		SQLiteConfig config = new SQLiteConfig();
+		config.setReadOnly(true);
+		String url = "jdbc:sqlite:" + database.getAbsolutePath().replace('\\', '/') + "/database.db";
+		for (int i = 0; i < READERS; i++) {
+			Connection reader = config.createConnection(url);
+			profile.apply(reader, true);
+			addRegExp(reader);
+			readers.add(reader);
+		}
+	}
+
+	private Connection takeReader() throws SQLException {
+		if (readers == null) {
+			return conn;
+		}
+		try {
+			// a store closed while waiting has no readers left to hand out
+			Connection reader = null;
+			while (reader == null) {
+				if (closed) {
+					throw new SQLException(Messages.getString("XliffStore.48"));
+				}
+				reader = readers.poll(1, TimeUnit.SECONDS);
+			}
+			return reader;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException(e);
+		}
+	}
+
+	private void releaseReader(Connection reader) throws SQLException {
+		if (reader != conn) {
+			readers.add(reader);
+			if (closed) {
+				// borrowed while the store was closing
+				closeReaders();
+			}
+		}
+	}
+
+	private void closeReaders() throws SQLException {
+		Connection reader = readers.poll();
+		while (reader != null) {
+			reader.close();
+			reader = readers.poll();
+		}
+	}
+
+	/**
+	 * Returns the lock for a read on the given connection: the writer connection
+	 * is only used under the monitor of the store, while a borrowed reader belongs
+	 * to the calling thread.
+	 */
+	private Object monitorOf(Connection reader) {
+		return reader == conn ? this : reader;
 	}
 
 	public String getXliff() {
@@ -381,6 +547,8 @@ public class XliffStore {
 				    targetText TEXT NOT NULL,
 				    words INTEGER NOT NULL DEFAULT 0,
 				    idx INTEGER,
+				    tagErrors CHAR(1) NOT NULL DEFAULT 'N',
+				    spaceErrors CHAR(1) NOT NULL DEFAULT 'N',
 				    PRIMARY KEY(file, unitId, segId, type)
 				);""";
 		String matches = """
@@ -447,8 +615,43 @@ public class XliffStore {
 		conn.commit();
 	}
 
+	private void createRenderedTable() throws SQLException {
+		// HTML of segments without filter highlights, with the images folder
+		// replaced as in HtmlRenderer.store()
+		String rendered = """
+				CREATE TABLE IF NOT EXISTS rendered (
+				    file VARCHAR(50),
+				    unitId VARCHAR(256) NOT NULL,
+				    segId VARCHAR(256) NOT NULL,
+				    source TEXT NOT NULL,
+				    target TEXT NOT NULL,
+				    tags INTEGER NOT NULL DEFAULT 0,
+				    PRIMARY KEY(file, unitId, segId)
+				    );""";
+		try (Statement create = conn.createStatement()) {
+			create.execute(rendered);
+		}
+		conn.commit();
+	}
+
+	private void createSegmentIndexes() throws SQLException {
+		// one index per sort option, ending with idx to break ties and to seek
+		// from the last row of a page; state lets filters skip rows in the index
+		String[] indexes = {
+				"CREATE INDEX IF NOT EXISTS segments_idx ON segments (type, idx, state);",
+				"CREATE INDEX IF NOT EXISTS segments_source ON segments (type, sourceText, idx);",
+				"CREATE INDEX IF NOT EXISTS segments_target ON segments (type, targetText, idx);",
+				"CREATE INDEX IF NOT EXISTS segments_state ON segments (type, state, idx);" };
+		try (Statement create = conn.createStatement()) {
+			for (int i = 0; i < indexes.length; i++) {
+				create.execute(indexes[i]);
+			}
+		}
+		conn.commit();
+	}
+
 	private void prepareInsertSegment() throws SQLException {
-		String sql = "INSERT INTO segments (file, unitId, segId, type, state, child, translate, tags, space, source, sourceText, target, targetText, words, chars) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+		String sql = "INSERT INTO segments (file, unitId, segId, type, state, child, translate, tags, space, source, sourceText, target, targetText, words, chars, tagErrors, spaceErrors) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
 		insertSegmentStmt = conn.prepareStatement(sql);
 	}
 
@@ -845,6 +1048,9 @@ public class XliffStore {
 		insertSegmentStmt.setString(13, (target != null ? XliffUtils.pureText(target) : ""));
 		insertSegmentStmt.setInt(14, type.equals("S") ? RepetitionAnalysis.wordCount(pureSource, srcLang) : 0);
 		insertSegmentStmt.setInt(15, type.equals("S") ? (pureSource.length() - spaces(pureSource)) : 0);
+		Element checked = target != null ? target : emptyTarget(source);
+		insertSegmentStmt.setString(16, hasTagErrors(source, checked) ? "Y" : "N");
+		insertSegmentStmt.setString(17, hasSpaceErrors(source, checked) ? "Y" : "N");
 		insertSegmentStmt.execute();
 	}
 
@@ -910,22 +1116,72 @@ public class XliffStore {
 		}
 	}
 
-	public synchronized List<JSONObject> getSegments(int start, int count, String filterText, String filterLanguage,
-			boolean caseSensitiveFilter, boolean regExp, boolean showUntranslated, boolean showTranslated,
-			boolean showConfirmed, boolean showReviewed, String sortOption, boolean sortDesc)
+	/**
+	 * Returns a page of segments. When <code>after</code> holds the "index" and
+	 * "key" of the last row of the previous page, the page starts right after
+	 * that row using the indexes on the sort columns; otherwise the first
+	 * <code>start</code> rows are skipped.
+	 */
+	public List<JSONObject> getSegments(int start, int count, JSONObject after, String filterText,
+			String filterLanguage, boolean caseSensitiveFilter, boolean regExp, boolean showUntranslated,
+			boolean showTranslated, boolean showConfirmed, boolean showReviewed, String sortOption, boolean sortDesc)
 			throws SQLException, SAXException, IOException, ParserConfigurationException, DataFormatException {
 		List<JSONObject> result = new Vector<>();
 		StringBuilder queryBuilder = new StringBuilder();
 		if (filterText == null) {
 			filterText = "";
 		}
+		Map<RenderingKey, Rendering> newRenderings = new LinkedHashMap<>();
 		boolean restrictByState = showUntranslated || showTranslated || showConfirmed;
-		queryBuilder.append(
-				"SELECT file, unitId, segId, child, source, target, tags, state, space, translate, idx FROM segments WHERE type='S'");
+		String sortColumn = null;
+		if (sortOption.equals("source")) {
+			sortColumn = "sourceText";
+		}
+		if (sortOption.equals("target")) {
+			sortColumn = "targetText";
+		}
+		if (sortOption.equals("status")) {
+			sortColumn = "state";
+		}
+		// unit data, metadata, best match, notes and the stored rendering come
+		// with each row instead of being queried one segment at a time
+		queryBuilder.append("""
+				SELECT s.file, s.unitId, s.segId, s.child, s.source, s.target, s.tags, s.state, s.space, s.translate,
+				    s.idx, s.tagErrors, s.spaceErrors, u.data, u.compressed, m.customdata,
+				    (SELECT CASE WHEN type IN ('mt', 'am') THEN 0 ELSE similarity END FROM matches
+				        WHERE file=s.file AND unitId=s.unitId AND segId=s.segId ORDER BY similarity DESC LIMIT 1),
+				    EXISTS (SELECT 1 FROM notes WHERE file=s.file AND unitId=s.unitId AND segId=s.segId),
+				    r.source, r.target, r.tags""");
+		if (sortColumn != null) {
+			queryBuilder.append(", s.");
+			queryBuilder.append(sortColumn);
+		}
+		queryBuilder.append("""
+
+				FROM segments s
+				    LEFT JOIN units u ON u.file=s.file AND u.unitId=s.unitId AND s.tags > 0
+				    LEFT JOIN metadata m ON m.file=s.file AND m.unitId=s.unitId
+				    LEFT JOIN rendered r ON r.file=s.file AND r.unitId=s.unitId AND r.segId=s.segId
+				WHERE s.type='S'""");
+		boolean seek = after != null && after.has("index") && (sortColumn == null || after.has("key"));
+		if (seek) {
+			String comparison = sortDesc ? " < " : " > ";
+			if (sortColumn == null) {
+				queryBuilder.append(" AND idx");
+				queryBuilder.append(comparison);
+				queryBuilder.append("?");
+			} else {
+				queryBuilder.append(" AND (");
+				queryBuilder.append(sortColumn);
+				queryBuilder.append(", idx)");
+				queryBuilder.append(comparison);
+				queryBuilder.append("(?, ?)");
+			}
+		}
 		if (!filterText.isEmpty()) {
 			if (regExp) {
 				try {
-					Pattern.compile(filterText);
+					PatternCache.get(filterText);
 				} catch (PatternSyntaxException e) {
 					throw new IOException(Messages.getString("XliffStore.47"));
 				}
@@ -965,92 +1221,155 @@ public class XliffStore {
 				queryBuilder.append(" AND state <> 'final'");
 			}
 		}
-		if (sortOption.equals("none")) {
-			queryBuilder.append(" ORDER BY file, child ");
-		}
-		if (sortOption.equals("source")) {
-			queryBuilder.append(" ORDER BY sourceText");
-		}
-		if (sortOption.equals("target")) {
-			queryBuilder.append(" ORDER BY targetText");
-		}
-		if (sortOption.equals("status")) {
-			queryBuilder.append(" ORDER BY state");
-		}
-		if (sortDesc) {
-			queryBuilder.append(" DESC ");
+		// idx follows the order of file and child and breaks ties between equal keys
+		String direction = sortDesc ? " DESC" : "";
+		queryBuilder.append(" ORDER BY ");
+		if (sortColumn != null) {
+			queryBuilder.append(sortColumn);
+			queryBuilder.append(direction);
+			queryBuilder.append(", ");
 		}
+		queryBuilder.append("idx");
+		queryBuilder.append(direction);
 		queryBuilder.append(" LIMIT ");
 		queryBuilder.append(count);
-		queryBuilder.append(" OFFSET ");
-		queryBuilder.append(start);
-		try (ResultSet rs = stmt.executeQuery(queryBuilder.toString())) {
-			while (rs.next()) {
-				String file = rs.getString(1);
-				String unit = rs.getString(2);
-				String segId = rs.getString(3);
-				String src = rs.getString(5);
-				String tgt = rs.getString(6);
-				int tags = rs.getInt(7);
-				String segState = rs.getString(8);
-				boolean segPreserve = "Y".equals(rs.getString(9));
-				boolean segTranslate = "Y".equals(rs.getString(10));
-				int idx = rs.getInt(11);
-
-				JSONObject tagsData = new JSONObject();
-				if (tags > 0) {
-					tagsData = getUnitData(file, unit);
-				}
-				Element source = XliffUtils.buildElement(src);
-
-				Element target = new Element("target");
-				if (source.hasAttribute("xml:space")) {
-					target.setAttribute("xml:space", source.getAttributeValue("xml:space"));
-				}
-				if (tgt != null && !tgt.isBlank()) {
-					target = XliffUtils.buildElement(tgt);
+		if (!seek) {
+			queryBuilder.append(" OFFSET ");
+			queryBuilder.append(start);
+		}
+		Connection reader = takeReader();
+		synchronized (monitorOf(reader)) {
+			try (PreparedStatement prep = reader.prepareStatement(queryBuilder.toString())) {
+				if (seek) {
+					if (sortColumn == null) {
+						prep.setInt(1, after.getInt("index"));
+					} else {
+						prep.setString(1, after.getString("key"));
+						prep.setInt(2, after.getInt("index"));
+					}
 				}
+				try (ResultSet rs = prep.executeQuery()) {
+					while (rs.next()) {
+						String file = rs.getString(1);
+						String unit = rs.getString(2);
+						String segId = rs.getString(3);
+						String src = rs.getString(5);
+						String tgt = rs.getString(6);
+						String segState = rs.getString(8);
+						boolean segPreserve = "Y".equals(rs.getString(9));
+						boolean segTranslate = "Y".equals(rs.getString(10));
+						int idx = rs.getInt(11);
+						String customData = rs.getString(16);
+
+						boolean hasMetadata = customData != null && !customData.isEmpty()
+								&& hasCustomData(new JSONObject(customData));
+						boolean reviewOnly = showReviewed && !restrictByState;
+						if (reviewOnly && !hasMetadata) {
+							continue;
+						}
+						if (!showReviewed && hasMetadata) {
+							continue;
+						}
 
-				boolean checkErrors = segTranslate
-						&& (segState.equals("final") || (segState.equals("translated") && acceptUnconfirmed));
-
-				boolean tagErrors = false;
-				boolean spaceErrors = false;
-				if (checkErrors) {
-					tagErrors = hasTagErrors(source, target);
-					spaceErrors = hasSpaceErrors(source, target);
-				}
-				boolean hasMetadata = hasMetadata(file, unit);
-				boolean reviewOnly = showReviewed && !restrictByState;
-				if (reviewOnly && !hasMetadata) {
-					continue;
-				}
-				if (!showReviewed && hasMetadata) {
-					continue;
+						boolean checkErrors = segTranslate
+								&& (segState.equals("final") || (segState.equals("translated") && acceptUnconfirmed));
+						boolean tagErrors = checkErrors && "Y".equals(rs.getString(12));
+						boolean spaceErrors = checkErrors && "Y".equals(rs.getString(13));
+
+						Rendering rendering = null;
+						RenderingKey key = new RenderingKey(file, unit, segId, src, tgt, filterText, caseSensitiveFilter,
+								regExp);
+						if (filterText.isEmpty()) {
+							String storedSource = rs.getString(19);
+							if (storedSource != null) {
+								rendering = new Rendering(HtmlRenderer.restore(storedSource),
+										HtmlRenderer.restore(rs.getString(20)), rs.getInt(21));
+								for (int i = 1; i <= rendering.tags(); i++) {
+									XliffUtils.checkSVG(i);
+								}
+							}
+						} else {
+							synchronized (renderings) {
+								rendering = renderings.get(key);
+							}
+						}
+						if (rendering == null) {
+							JSONObject tagsData = toUnitData(rs.getString(14), "Y".equals(rs.getString(15)));
+							Element source = XliffUtils.buildElement(src);
+							Element target = emptyTarget(source);
+							if (tgt != null && !tgt.isBlank()) {
+								target = XliffUtils.buildElement(tgt);
+							}
+							HtmlRenderer renderer = new HtmlRenderer();
+							String sourceHtml = renderer.addHtmlTags(source, filterText, caseSensitiveFilter, regExp,
+									tagsData, segPreserve);
+							String targetHtml = renderer.addHtmlTags(target, filterText, caseSensitiveFilter, regExp,
+									tagsData, segPreserve);
+							rendering = new Rendering(sourceHtml, targetHtml, renderer.getTagCount());
+							if (filterText.isEmpty()) {
+								newRenderings.put(key, rendering);
+							} else {
+								synchronized (renderings) {
+									renderings.put(key, rendering);
+								}
+							}
+						}
+						JSONObject row = new JSONObject();
+						row.put("index", idx);
+						if (sortColumn != null) {
+							row.put("key", rs.getString(22));
+						}
+						row.put("file", file);
+						row.put("unit", unit);
+						row.put("segment", segId);
+						row.put("state", segState);
+						row.put("translate", segTranslate);
+						row.put("preserve", segPreserve);
+						row.put("source", rendering.source());
+						row.put("target", rendering.target());
+						row.put("match", rs.getInt(17));
+						row.put("hasNotes", rs.getBoolean(18));
+						row.put("hasMetadata", hasMetadata);
+						row.put("tagErrors", tagErrors);
+						row.put("spaceErrors", spaceErrors);
+						result.add(row);
+					}
 				}
-				tagsMap = new Hashtable<>();
-				JSONObject row = new JSONObject();
-				row.put("index", idx);
-				row.put("file", file);
-				row.put("unit", unit);
-				row.put("segment", segId);
-				row.put("state", segState);
-				row.put("translate", segTranslate);
-				row.put("preserve", segPreserve);
-				tag = 1;
-				row.put("source", addHtmlTags(source, filterText, caseSensitiveFilter, regExp, tagsData, segPreserve));
-				row.put("target", addHtmlTags(target, filterText, caseSensitiveFilter, regExp, tagsData, segPreserve));
-				row.put("match", getBestMatch(file, unit, segId));
-				row.put("hasNotes", hasNotes(file, unit, segId));
-				row.put("hasMetadata", hasMetadata);
-				row.put("tagErrors", tagErrors);
-				row.put("spaceErrors", spaceErrors);
-				result.add(row);
+			} finally {
+				releaseReader(reader);
 			}
 		}
+		if (!newRenderings.isEmpty()) {
+			storeRenderings(newRenderings);
+		}
 		return result;
 	}
 
+	// a rendering is not stored if its segment was edited after it was read
+	private synchronized void storeRenderings(Map<RenderingKey, Rendering> newRenderings)
+			throws SQLException, IOException {
+		Iterator<Map.Entry<RenderingKey, Rendering>> it = newRenderings.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<RenderingKey, Rendering> entry = it.next();
+			RenderingKey key = entry.getKey();
+			Rendering rendering = entry.getValue();
+			insertRendered.setString(1, key.file());
+			insertRendered.setString(2, key.unit());
+			insertRendered.setString(3, key.segment());
+			insertRendered.setString(4, HtmlRenderer.store(rendering.source()));
+			insertRendered.setString(5, HtmlRenderer.store(rendering.target()));
+			insertRendered.setInt(6, rendering.tags());
+			insertRendered.setString(7, key.file());
+			insertRendered.setString(8, key.unit());
+			insertRendered.setString(9, key.segment());
+			insertRendered.setString(10, key.source());
+			insertRendered.setString(11, key.target());
+			insertRendered.addBatch();
+		}
+		insertRendered.executeBatch();
+		conn.commit();
+	}
+
 	private boolean hasNotes(String file, String unit, String segId) throws SQLException {
 		boolean result = false;
 		try (PreparedStatement getNotesStmt = conn
@@ -1076,6 +1395,11 @@ public class XliffStore {
 		if (metadata == null) {
 			return false;
 		}
+		return hasCustomData(metadata);
+	}
+
+	// true if the metadata of a unit has entries other than "ctype"
+	private static boolean hasCustomData(JSONObject metadata) {
 		boolean customData = false;
 		if (metadata.has("data")) {
 			JSONArray data = metadata.getJSONArray("data");
@@ -1098,20 +1422,25 @@ public class XliffStore {
 		return customData;
 	}
 
-	public synchronized JSONArray getNotes(String file, String unit, String segId) throws SQLException {
+	public JSONArray getNotes(String file, String unit, String segId) throws SQLException {
 		JSONArray array = new JSONArray();
-		try (PreparedStatement getNotesStmt = conn
-				.prepareStatement("SELECT noteId, note FROM notes WHERE file=? AND unitId=? AND segId=?")) {
-			getNotesStmt.setString(1, file);
-			getNotesStmt.setString(2, unit);
-			getNotesStmt.setString(3, segId);
-			try (ResultSet rs = getNotesStmt.executeQuery()) {
-				while (rs.next()) {
-					JSONObject note = new JSONObject();
-					note.put("id", rs.getString(1));
-					note.put("note", rs.getString(2));
-					array.put(note);
+		Connection reader = takeReader();
+		synchronized (monitorOf(reader)) {
+			try (PreparedStatement getNotesStmt = reader
+					.prepareStatement("SELECT noteId, note FROM notes WHERE file=? AND unitId=? AND segId=?")) {
+				getNotesStmt.setString(1, file);
+				getNotesStmt.setString(2, unit);
+				getNotesStmt.setString(3, segId);
+				try (ResultSet rs = getNotesStmt.executeQuery()) {
+					while (rs.next()) {
+						JSONObject note = new JSONObject();
+						note.put("id", rs.getString(1));
+						note.put("note", rs.getString(2));
+						array.put(note);
+					}
 				}
+			} finally {
+				releaseReader(reader);
 			}
 		}
 		return array;
@@ -1274,7 +1603,7 @@ public class XliffStore {
 		return result;
 	}
 
-	public JSONArray updateNote(String file, String unit, String segId, String noteText, String noteId)
+	public synchronized JSONArray updateNote(String file, String unit, String segId, String noteText, String noteId)
 			throws SQLException {
 		String sql = "UPDATE notes SET note=? WHERE file=? AND unitId=? AND segId=? AND noteId=?";
 		try (PreparedStatement prep = conn.prepareStatement(sql)) {
@@ -1339,7 +1668,7 @@ public class XliffStore {
 		return array;
 	}
 
-	public JSONArray removeNote(String file, String unit, String segId, String noteId) throws SQLException {
+	public synchronized JSONArray removeNote(String file, String unit, String segId, String noteId) throws SQLException {
 		String sql = "DELETE FROM notes WHERE file=? AND unitId=? AND segId=? AND noteId=?";
 		try (PreparedStatement prep = conn.prepareStatement(sql)) {
 			prep.setString(1, file);
@@ -1387,6 +1716,46 @@ public class XliffStore {
 		return !(sourceSpaces[0].equals(targetSpaces[0]) && sourceSpaces[1].equals(targetSpaces[1]));
 	}
 
+	private static Element emptyTarget(Element source) {
+		Element target = new Element("target");
+		if (source.hasAttribute("xml:space")) {
+			target.setAttribute("xml:space", source.getAttributeValue("xml:space"));
+		}
+		return target;
+	}
+
+	// stores the tag and space errors of a segment and drops its stored
+	// rendering after its source or target change
+	private void segmentChanged(String file, String unit, String segment)
+			throws SQLException, SAXException, IOException, ParserConfigurationException {
+		deleteRendered.setString(1, file);
+		deleteRendered.setString(2, unit);
+		deleteRendered.setString(3, segment);
+		deleteRendered.executeUpdate();
+		getErrorsData.setString(1, file);
+		getErrorsData.setString(2, unit);
+		getErrorsData.setString(3, segment);
+		String src = "";
+		String tgt = "";
+		try (ResultSet rs = getErrorsData.executeQuery()) {
+			while (rs.next()) {
+				src = rs.getString(1);
+				tgt = rs.getString(2);
+			}
+		}
+		if (src.isEmpty()) {
+			return;
+		}
+		Element source = XliffUtils.buildElement(src);
+		Element target = tgt == null || tgt.isBlank() ? emptyTarget(source) : XliffUtils.buildElement(tgt);
+		updateErrorsStmt.setString(1, hasTagErrors(source, target) ? "Y" : "N");
+		updateErrorsStmt.setString(2, hasSpaceErrors(source, target) ? "Y" : "N");
+		updateErrorsStmt.setString(3, file);
+		updateErrorsStmt.setString(4, unit);
+		updateErrorsStmt.setString(5, segment);
+		updateErrorsStmt.executeUpdate();
+	}
+
 	private synchronized int getBestMatch(String file, String unit, String segment) throws SQLException {
 		String type = "";
 		int similarity = 0;
@@ -1416,7 +1785,11 @@ public class XliffStore {
 				compressed = "Y".equals(rs.getString(2));
 			}
 		}
-		if (data.isEmpty()) {
+		return toUnitData(data, compressed);
+	}
+
+	private static JSONObject toUnitData(String data, boolean compressed) throws DataFormatException {
+		if (data == null || data.isEmpty()) {
 			return new JSONObject();
 		}
 		if (compressed) {
@@ -1426,6 +1799,11 @@ public class XliffStore {
 	}
 
 	public void close() throws SQLException {
+		if (readers != null) {
+			// readers still borrowed are closed when they are released
+			closed = true;
+			closeReaders();
+		}
 		getUnitData.close();
 		getSource.close();
 		getTargetStmt.close();
@@ -1438,6 +1816,10 @@ public class XliffStore {
 		getTerms.close();
 		checkTerm.close();
 		getSegment.close();
+		getErrorsData.close();
+		updateErrorsStmt.close();
+		insertRendered.close();
+		deleteRendered.close();
 		getChild.close();
 		getContext.close();
 		insertMetadata.close();
@@ -1560,11 +1942,10 @@ public class XliffStore {
 		result.put("hasNotes", hasNotes(file, unit, segment));
 
 		JSONObject originalData = getUnitData(file, unit);
-		tag = 1;
-		tagsMap = new Hashtable<>();
-		// populate tagsMap with source to get the right numbers when processing target
-		addHtmlTags(source, originalData);
-		result.put("target", addHtmlTags(target, originalData));
+		HtmlRenderer renderer = new HtmlRenderer();
+		// render the source first to get the right numbers when processing target
+		renderer.addHtmlTags(source, originalData);
+		result.put("target", renderer.addHtmlTags(target, originalData));
 
 		if (!memory.equals(Constants.NONE) && !pureTarget.isBlank() && confirm) {
 			new Thread(() -> {
@@ -1703,6 +2084,8 @@ public class XliffStore {
 			prep.setString(5, segment);
 			prep.executeUpdate();
 		}
+		segmentChanged(file, unit, segment);
+		conn.commit();
 	}
 
 	public synchronized JSONObject setTarget(JSONObject json)
@@ -1724,36 +2107,45 @@ public class XliffStore {
 			prep.setString(5, segment);
 			prep.executeUpdate();
 		}
+		segmentChanged(file, unit, segment);
+		conn.commit();
 		JSONObject tagsData = getUnitData(file, unit);
 		boolean preserve = "preserve".equals(tgt.getAttributeValue("xml:space", "default"));
-		String tagged = addHtmlTags(tgt, "", false, false, tagsData, preserve);
+		String tagged = new HtmlRenderer().addHtmlTags(tgt, "", false, false, tagsData, preserve);
 		result.put("target", tagged);
 		return result;
 	}
 
-	public synchronized JSONObject getTranslationStatus() throws SQLException {
+	public JSONObject getTranslationStatus() throws SQLException {
 		JSONObject result = new JSONObject();
 		int total = 0;
 		int translated = 0;
 		int confirmed = 0;
 		int segments = 0;
-		String sql = "SELECT SUM(words), COUNT(*) FROM segments WHERE type='S'";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				total = rs.getInt(1);
-				segments = rs.getInt(2);
-			}
-		}
-		sql = "SELECT SUM(words) FROM segments WHERE state='final' AND type='S'";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				confirmed = rs.getInt(1);
-			}
-		}
-		sql = "SELECT SUM(words) FROM segments WHERE state <> 'initial' AND type='S'";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				translated = rs.getInt(1);
+		Connection reader = takeReader();
+		synchronized (monitorOf(reader)) {
+			try (Statement st = reader.createStatement()) {
+				String sql = "SELECT SUM(words), COUNT(*) FROM segments WHERE type='S'";
+				try (ResultSet rs = st.executeQuery(sql)) {
+					while (rs.next()) {
+						total = rs.getInt(1);
+						segments = rs.getInt(2);
+					}
+				}
+				sql = "SELECT SUM(words) FROM segments WHERE state='final' AND type='S'";
+				try (ResultSet rs = st.executeQuery(sql)) {
+					while (rs.next()) {
+						confirmed = rs.getInt(1);
+					}
+				}
+				sql = "SELECT SUM(words) FROM segments WHERE state <> 'initial' AND type='S'";
+				try (ResultSet rs = st.executeQuery(sql)) {
+					while (rs.next()) {
+						translated = rs.getInt(1);
+					}
+				}
+			} finally {
+				releaseReader(reader);
 			}
 		}
 		int percentage = 0;
@@ -1775,7 +2167,7 @@ public class XliffStore {
 	}
 
 	private synchronized void updateTarget(String file, String unit, String segment, Element target, String pureTarget,
-			boolean confirm) throws SQLException {
+			boolean confirm) throws SQLException, SAXException, IOException, ParserConfigurationException {
 		String segState = pureTarget.isBlank() ? Constants.INITIAL : Constants.TRANSLATED;
 		if (confirm) {
 			segState = Constants.FINAL;
@@ -1787,6 +2179,7 @@ public class XliffStore {
 		updateTargetStmt.setString(5, unit);
 		updateTargetStmt.setString(6, segment);
 		updateTargetStmt.executeUpdate();
+		segmentChanged(file, unit, segment);
 		conn.commit();
 	}
 
@@ -1812,17 +2205,16 @@ public class XliffStore {
 						tagsData = getUnitData(file, unit);
 					}
 					if (similarity == 100 && Constants.INITIAL.equals(state)) {
-						tagsMap = new Hashtable<>();
-						tag = 1;
-						addHtmlTags(candidate, "", false, false, tagsData, true);
+						HtmlRenderer renderer = new HtmlRenderer();
+						renderer.addHtmlTags(candidate, "", false, false, tagsData, true);
 
 						JSONObject row = new JSONObject();
 						row.put("file", file);
 						row.put("unit", unit);
 						row.put("segment", segment);
 						row.put("match", 100);
-						tag = 1;
-						String translation = addHtmlTags(target, "", false, false, tagsData, true);
+						renderer.restart();
+						String translation = renderer.addHtmlTags(target, "", false, false, tagsData, true);
 						row.put("target", translation);
 						row.put("status", autoConfirm ? Constants.FINAL : Constants.TRANSLATED);
 						result.put(row);
@@ -1995,405 +2387,6 @@ public class XliffStore {
 		return string.toString();
 	}
 
-	private String addHtmlTags(Element seg, JSONObject originalData) throws IOException {
-		if (seg == null) {
-			return "";
-		}
-		List<XMLNode> list = seg.getContent();
-		Iterator<XMLNode> it = list.iterator();
-		StringBuilder text = new StringBuilder();
-		while (it.hasNext()) {
-			XMLNode o = it.next();
-			if (o.getNodeType() == XMLNode.TEXT_NODE) {
-				text.append(XliffUtils.cleanString(((TextNode) o).getText()));
-			} else if (o.getNodeType() == XMLNode.ELEMENT_NODE) {
-				// paired: <pc>, <mrk>,
-				Element e = (Element) o;
-				String type = e.getName();
-				if (type.equals("pc")) {
-					String id = e.getAttributeValue("id");
-					if (!tagsMap.containsKey("pc" + id)) {
-						XliffUtils.checkSVG(tag);
-						String header = e.getHead();
-						StringBuilder sb = new StringBuilder();
-						sb.append("<img data-ref='");
-						sb.append(id);
-						sb.append("' data-id='");
-						sb.append(tag);
-						sb.append("' src='");
-						sb.append(TmsServer.getWorkFolder().toURI().toURL().toString());
-						sb.append("images/");
-						sb.append(tag++);
-						sb.append(".svg' align='bottom' alt='' title=\"");
-						sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(header)));
-						sb.append("\"/>");
-						tagsMap.put("pc" + id, sb.toString());
-					}
-					text.append(tagsMap.get("pc" + id));
-					text.append(addHtmlTags(e, originalData));
-					if (!tagsMap.containsKey("/pc" + id)) {
-						XliffUtils.checkSVG(tag);
-						String tail = "</pc>";
-						StringBuilder sb = new StringBuilder();
-						sb.append("<img data-ref='/");
-						sb.append(e.getAttributeValue("id"));
-						sb.append("' data-id='");
-						sb.append(tag);
-						sb.append("' src='");
-						sb.append(TmsServer.getWorkFolder().toURI().toURL().toString());
-						sb.append("images/");
-						sb.append(tag++);
-						sb.append(".svg' align='bottom' alt='' title=\"");
-						sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(tail)));
-						sb.append("\"/>");
-						tagsMap.put("/pc" + id, sb.toString());
-					}
-					text.append("/" + tagsMap.get(e.getName() + id));
-				} else if (type.equals("mrk")) {
-					String id = e.getAttributeValue("id");
-					if (!"term".equals(e.getAttributeValue("type"))) {
-						if (!tagsMap.containsKey("mrk" + id)) {
-							XliffUtils.checkSVG(tag);
-							String header = e.getHead();
-							StringBuilder sb = new StringBuilder();
-							sb.append("<img data-ref='");
-							sb.append(id);
-							sb.append("' data-id='");
-							sb.append(tag);
-							sb.append("' src='");
-							sb.append(TmsServer.getWorkFolder().toURI().toURL().toString());
-							sb.append("images/");
-							sb.append(tag++);
-							sb.append(".svg' align='bottom' alt='' title=\"");
-							sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(header)));
-							sb.append("\"/>");
-							tagsMap.put("mrk" + id, sb.toString());
-						}
-						text.append(tagsMap.get(e.getName() + id));
-						text.append("<span " + XliffUtils.STYLE + ">");
-					} else {
-						text.append("<span " + XliffUtils.STYLE + " title=\""
-								+ XliffUtils.unquote(e.getAttributeValue("value")) + "\">");
-					}
-					text.append(e.getText());
-					text.append("</span>");
-					if (!"term".equals(e.getAttributeValue("type"))) {
-						if (!tagsMap.containsKey("/mrk" + id)) {
-							XliffUtils.checkSVG(tag);
-							String tail = "</mrk>";
-							StringBuilder sb = new StringBuilder();
-							sb.append("<img data-ref='/");
-							sb.append(e.getAttributeValue("id"));
-							sb.append("' data-id='");
-							sb.append(tag);
-							sb.append("' src='");
-							sb.append(TmsServer.getWorkFolder().toURI().toURL().toString());
-							sb.append("images/");
-							sb.append(tag++);
-							sb.append(".svg' align='bottom' alt='' title=\"");
-							sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(tail)));
-							sb.append("\"/>");
-							tagsMap.put("/mrk" + id, sb.toString());
-						}
-						text.append(tagsMap.get("/mrk" + id));
-					}
-				} else if (type.equals("cp")) {
-					// empty - special case
-					String hex = "cp" + e.getAttributeValue("hex");
-					if (!tagsMap.containsKey(hex)) {
-						XliffUtils.checkSVG(tag);
-						StringBuilder sb = new StringBuilder();
-						sb.append("<img data-ref='");
-						sb.append(hex);
-						sb.append("' data-id='");
-						sb.append(tag);
-						sb.append("' src='");
-						sb.append(TmsServer.getWorkFolder().toURI().toURL().toString());
-						sb.append("images/");
-						sb.append(tag++);
-						sb.append(".svg' align='bottom' alt='' title=\"");
-						sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(e.toString())));
-						sb.append("\"/>");
-						tagsMap.put(hex, sb.toString());
-					}
-					text.append(tagsMap.get(hex));
-				} else {
-					// empty: <ph>, <sc>, <ec>, <sm> and <em>.
-					String key = e.getName() + e.getAttributeValue("id");
-					if (!tagsMap.containsKey(key)) {
-						String dataRef = e.getAttributeValue("dataRef");
-						if (dataRef.isEmpty()) {
-							dataRef = e.getAttributeValue("id");
-						}
-						XliffUtils.checkSVG(tag);
-						StringBuilder sb = new StringBuilder();
-						sb.append("<img data-ref='");
-						sb.append(dataRef);
-						sb.append("' data-id='");
-						sb.append(tag);
-						sb.append("' src='");
-						sb.append(TmsServer.getWorkFolder().toURI().toURL().toString());
-						sb.append("images/");
-						sb.append(tag++);
-						sb.append(".svg' align='bottom' alt='' title=\"");
-						String title = "";
-						if (originalData.has(dataRef)) {
-							title = originalData.getString(dataRef);
-						}
-						sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(title)));
-						sb.append("\"/>");
-						tagsMap.put(key, sb.toString());
-					}
-					text.append(tagsMap.get(key));
-				}
-			}
-		}
-		return text.toString();
-	}
-
-	private String addHtmlTags(Element seg, String filterText, boolean caseSensitive, boolean regExp,
-			JSONObject originalData, boolean preserve) throws IOException {
-		if (seg == null) {
-			return "";
-		}
-		List<XMLNode> list = seg.getContent();
-		Iterator<XMLNode> it = list.iterator();
-		StringBuilder text = new StringBuilder();
-		while (it.hasNext()) {
-			XMLNode o = it.next();
-			if (o.getNodeType() == XMLNode.TEXT_NODE) {
-				if (filterText == null || filterText.isEmpty()) {
-					text.append(XliffUtils.cleanString(((TextNode) o).getText()));
-				} else {
-					if (regExp) {
-						if (pattern == null || !filterText.equals(lastFilterText)) {
-							pattern = Pattern.compile(filterText);
-							lastFilterText = filterText;
-						}
-						String s = ((TextNode) o).getText();
-						Matcher matcher = pattern.matcher(s);
-						if (matcher.find()) {
-							StringBuilder sb = new StringBuilder();
-							int lastEnd = 0;
-							do {
-								int start = matcher.start();
-								int end = matcher.end();
-								sb.append(XliffUtils.cleanString(s.substring(lastEnd, start)));
-								if (end > start) {
-									sb.append("<span " + XliffUtils.STYLE + ">");
-									sb.append(XliffUtils.cleanString(s.substring(start, end)));
-									sb.append("</span>");
-								}
-								lastEnd = end;
-							} while (matcher.find());
-							sb.append(XliffUtils.cleanString(s.substring(lastEnd)));
-							text.append(sb.toString());
-						} else {
-							text.append(XliffUtils.cleanString(s));
-						}
-					} else {
-						String s = XliffUtils.cleanString(((TextNode) o).getText());
-						String t = XliffUtils.cleanString(filterText);
-						if (caseSensitive) {
-							if (s.indexOf(t) != -1) {
-								text.append(XliffUtils.highlight(s, t, caseSensitive));
-							} else {
-								text.append(s);
-							}
-						} else {
-							if (s.toLowerCase().indexOf(t.toLowerCase()) != -1) {
-								text.append(XliffUtils.highlight(s, t, caseSensitive));
-							} else {
-								text.append(s);
-							}
-						}
-					}
-				}
-			} else if (o.getNodeType() == XMLNode.ELEMENT_NODE) {
-				text.append(inline2html((Element) o, originalData));
-			}
-		}
-		return preserve ? XliffUtils.highlightSpaces(text.toString()) : text.toString().trim();
-	}
-
-	private String inline2html(Element e, JSONObject originalData) throws IOException {
-		// empty: <cp>, <ph>, <sc>, <ec>, <sm> and <em>.
-		// paired: <pc>, <mrk>,
-		StringBuilder text = new StringBuilder();
-		String type = e.getName();
-		if (type.equals("pc")) {
-			String id = e.getAttributeValue("id");
-			if (!tagsMap.containsKey("pc" + id)) {
-				XliffUtils.checkSVG(tag);
-				String header = e.getHead();
-				StringBuilder sb = new StringBuilder();
-				sb.append("<img data-ref='");
-				sb.append(id);
-				sb.append("' data-id='");
-				sb.append(tag);
-				sb.append("' src='");
-				sb.append(TmsServer.getWorkFolder().toURI().toURL().toString());
-				sb.append("images/");
-				sb.append(tag++);
-				sb.append(".svg' align='bottom' alt='' title=\"");
-				sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(header)));
-				sb.append("\"/>");
-				tagsMap.put("pc" + id, sb.toString());
-			}
-			text.append(tagsMap.get("pc" + id));
-			List<XMLNode> content = e.getContent();
-			Iterator<XMLNode> it = content.iterator();
-			while (it.hasNext()) {
-				XMLNode node = it.next();
-				if (node.getNodeType() == XMLNode.TEXT_NODE) {
-					String s = ((TextNode) node).getText();
-					text.append(XMLUtils.cleanText(s));
-				}
-				if (node.getNodeType() == XMLNode.ELEMENT_NODE) {
-					text.append(inline2html((Element) node, originalData));
-				}
-			}
-			if (!tagsMap.containsKey("/pc" + id)) {
-				XliffUtils.checkSVG(tag);
-				StringBuilder sb = new StringBuilder();
-				sb.append("<img data-ref='/");
-				sb.append(e.getAttributeValue("id"));
-				sb.append("' data-id='");
-				sb.append(tag);
-				sb.append("' src='");
-				sb.append(TmsServer.getWorkFolder().toURI().toURL().toString());
-				sb.append("images/");
-				sb.append(tag++);
-				sb.append(".svg' align='bottom' alt='' title=\"");
-				sb.append(XliffUtils.unquote(XliffUtils.cleanAngles("</pc>")));
-				sb.append("\"/>");
-				tagsMap.put("/pc" + id, sb.toString());
-			}
-			text.append(tagsMap.get("/pc" + id));
-		} else if (type.equals("mrk")) {
-			String id = e.getAttributeValue("id");
-			boolean isTerm = e.getAttributeValue("type").equals("term");
-			if (!isTerm) {
-				if (!tagsMap.containsKey("mrk" + id)) {
-					XliffUtils.checkSVG(tag);
-					String header = e.getHead();
-					StringBuilder sb = new StringBuilder();
-					sb.append("<img data-ref='");
-					sb.append(id);
-					sb.append("' data-id='");
-					sb.append(tag);
-					sb.append("' src='");
-					sb.append(TmsServer.getWorkFolder().toURI().toURL().toString());
-					sb.append("images/");
-					sb.append(tag++);
-					sb.append(".svg' align='bottom' alt='' title=\"");
-					sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(header)));
-					sb.append("\"/>");
-					tagsMap.put("mrk" + id, sb.toString());
-				}
-				text.append(tagsMap.get(e.getName() + id));
-				text.append("<span " + XliffUtils.STYLE + ">");
-			} else {
-				text.append("<span " + XliffUtils.STYLE + " title=\"" + e.getAttributeValue("value") + "\">");
-			}
-			List<XMLNode> content = e.getContent();
-			Iterator<XMLNode> it = content.iterator();
-			while (it.hasNext()) {
-				XMLNode node = it.next();
-				if (node.getNodeType() == XMLNode.TEXT_NODE) {
-					String s = ((TextNode) node).getText();
-					text.append(XMLUtils.cleanText(s));
-				}
-				if (node.getNodeType() == XMLNode.ELEMENT_NODE) {
-					text.append(inline2html((Element) node, originalData));
-				}
-			}
-			text.append("</span>");
-			if (!isTerm) {
-				if (!tagsMap.containsKey("/mrk" + id)) {
-					XliffUtils.checkSVG(tag);
-					StringBuilder sb = new StringBuilder();
-					sb.append("<img data-ref='/");
-					sb.append(e.getAttributeValue("id"));
-					sb.append("' data-id='");
-					sb.append(tag);
-					sb.append("' src='");
-					sb.append(TmsServer.getWorkFolder().toURI().toURL().toString());
-					sb.append("images/");
-					sb.append(tag++);
-					sb.append(".svg' align='bottom' alt='' title=\"");
-					sb.append(XliffUtils.unquote(XliffUtils.cleanAngles("</mrk>")));
-					sb.append("\"/>");
-					tagsMap.put("/mrk" + id, sb.toString());
-				}
-				text.append(tagsMap.get("/mrk" + id));
-			}
-		} else if (type.equals("cp")) {
-			String hex = "cp" + e.getAttributeValue("hex");
-			if (!tagsMap.containsKey(hex)) {
-				XliffUtils.checkSVG(tag);
-				StringBuilder sb = new StringBuilder();
-				sb.append("<img data-ref='");
-				sb.append(hex);
-				sb.append("' data-id='");
-				sb.append(tag);
-				sb.append("' src='");
-				sb.append(TmsServer.getWorkFolder().toURI().toURL().toString());
-				sb.append("images/");
-				sb.append(tag++);
-				sb.append(".svg' align='bottom' alt='' title=\"");
-				sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(e.toString())));
-				sb.append("\"/>");
-				tagsMap.put(hex, sb.toString());
-			}
-			text.append(tagsMap.get(hex));
-		} else if ("ph".equals(type)) {
-			String id = e.getAttributeValue("id");
-			if (!tagsMap.containsKey("ph" + id)) {
-				XliffUtils.checkSVG(tag);
-				String title = originalData.has(id) ? originalData.getString(id) : e.toString();
-				StringBuilder sb = new StringBuilder();
-				sb.append("<img data-ref='");
-				sb.append(id);
-				sb.append("' data-id='");
-				sb.append(tag);
-				sb.append("' src='");
-				sb.append(TmsServer.getWorkFolder().toURI().toURL().toString());
-				sb.append("images/");
-				sb.append(tag++);
-				sb.append(".svg' align='bottom' alt='' title=\"");
-				sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(title)));
-				sb.append("\"/>");
-				tagsMap.put("ph" + id, sb.toString());
-			}
-			text.append(tagsMap.get("ph" + id));
-		} else {
-			String dataRef = e.getAttributeValue("dataRef");
-			if (!tagsMap.containsKey(dataRef)) {
-				XliffUtils.checkSVG(tag);
-				StringBuilder sb = new StringBuilder();
-				sb.append("<img data-ref='");
-				sb.append(dataRef);
-				sb.append("' data-id='");
-				sb.append(tag);
-				sb.append("' src='");
-				sb.append(TmsServer.getWorkFolder().toURI().toURL().toString());
-				sb.append("images/");
-				sb.append(tag++);
-				sb.append(".svg' align='bottom' alt='' title=\"");
-				String title = "";
-				if (originalData.has(dataRef)) {
-					title = originalData.getString(dataRef);
-				}
-				sb.append(XliffUtils.unquote(XliffUtils.cleanAngles(title)));
-				sb.append("\"/>");
-				tagsMap.put(dataRef, sb.toString());
-			}
-			text.append(tagsMap.get(dataRef));
-		}
-		return text.toString();
-	}
-
 	private String replace(String source, String target, String replacement) {
 		int start = source.indexOf(target);
 		while (start != -1) {
@@ -2427,84 +2420,110 @@ public class XliffStore {
 		return result;
 	}
 
-	public synchronized JSONArray getTaggedtMatches(JSONObject json)
+	public JSONArray getTaggedtMatches(JSONObject json)
 			throws SQLException, SAXException, IOException, ParserConfigurationException, DataFormatException {
-		JSONArray result = new JSONArray();
-
 		String file = json.getString("file");
 		String unit = json.getString("unit");
 		String segment = json.getString("segment");
+		Connection reader = takeReader();
+		synchronized (monitorOf(reader)) {
+			try {
+				return getTaggedtMatches(reader, file, unit, segment);
+			} finally {
+				releaseReader(reader);
+			}
+		}
+	}
 
-		JSONObject originalData = getUnitData(file, unit);
+	private JSONArray getTaggedtMatches(Connection reader, String file, String unit, String segment)
+			throws SQLException, SAXException, IOException, ParserConfigurationException, DataFormatException {
+		JSONArray result = new JSONArray();
+
+		JSONObject originalData = new JSONObject();
+		try (PreparedStatement prep = reader
+				.prepareStatement("SELECT data, compressed FROM units WHERE file=? AND unitId=?")) {
+			prep.setString(1, file);
+			prep.setString(2, unit);
+			try (ResultSet rs = prep.executeQuery()) {
+				while (rs.next()) {
+					originalData = toUnitData(rs.getString(1), "Y".equals(rs.getString(2)));
+				}
+			}
+		}
 		Element originalSource = null;
 
-		getSource.setString(1, file);
-		getSource.setString(2, unit);
-		getSource.setString(3, segment);
-		try (ResultSet rs = getSource.executeQuery()) {
-			while (rs.next()) {
-				String src = rs.getString(1);
-				originalSource = XliffUtils.buildElement(src);
+		try (PreparedStatement prep = reader
+				.prepareStatement("SELECT source FROM segments WHERE file=? AND unitId=? AND segId=?")) {
+			prep.setString(1, file);
+			prep.setString(2, unit);
+			prep.setString(3, segment);
+			try (ResultSet rs = prep.executeQuery()) {
+				while (rs.next()) {
+					String src = rs.getString(1);
+					originalSource = XliffUtils.buildElement(src);
+				}
 			}
 		}
 		List<Element> originalTags = originalSource.getChildren();
 		String dummySource = dummyTagger(originalSource);
 
-		getMatches.setString(1, file);
-		getMatches.setString(2, unit);
-		getMatches.setString(3, segment);
-		try (ResultSet rs = getMatches.executeQuery()) {
-			while (rs.next()) {
-				tag = 1;
-				JSONObject match = new JSONObject();
-				match.put("file", file);
-				match.put("unit", unit);
-				match.put("segment", segment);
-				match.put("matchId", rs.getString(4));
-				match.put("origin", rs.getString(5));
-				match.put("type", rs.getString(6));
-				match.put("similarity", rs.getInt(7));
-				match.put("srcLang", srcLang);
-				match.put("tgtLang", tgtLang);
-
-				String src = rs.getString(8);
-				Element source = XliffUtils.buildElement(src);
-				String tgt = rs.getString(9);
-				Element target = XliffUtils.buildElement(tgt);
+		try (PreparedStatement prep = reader.prepareStatement(
+				"SELECT matchId, origin, type, similarity, source, target FROM matches WHERE file=? AND unitId=? AND segId=? ORDER BY similarity DESC")) {
+			prep.setString(1, file);
+			prep.setString(2, unit);
+			prep.setString(3, segment);
+			try (ResultSet rs = prep.executeQuery()) {
+				while (rs.next()) {
+					JSONObject match = new JSONObject();
+					match.put("file", file);
+					match.put("unit", unit);
+					match.put("segment", segment);
+					match.put("matchId", rs.getString(1));
+					match.put("origin", rs.getString(2));
+					match.put("type", rs.getString(3));
+					match.put("similarity", rs.getInt(4));
+					match.put("srcLang", srcLang);
+					match.put("tgtLang", tgtLang);
+
+					String src = rs.getString(5);
+					Element source = XliffUtils.buildElement(src);
+					String tgt = rs.getString(6);
+					Element target = XliffUtils.buildElement(tgt);
 
-				List<Element> sourceTags = source.getChildren();
-				List<Element> targetTags = target.getChildren();
+					List<Element> sourceTags = source.getChildren();
+					List<Element> targetTags = target.getChildren();
 
-				for (int i = 0; i < sourceTags.size(); i++) {
-					Element sourceTag = sourceTags.get(i);
-					for (int j = 0; j < targetTags.size(); j++) {
-						Element targetTag = targetTags.get(j);
-						if (sourceTag.equals(targetTag) && i < originalTags.size()) {
-							targetTag.clone(originalTags.get(i));
+					for (int i = 0; i < sourceTags.size(); i++) {
+						Element sourceTag = sourceTags.get(i);
+						for (int j = 0; j < targetTags.size(); j++) {
+							Element targetTag = targetTags.get(j);
+							if (sourceTag.equals(targetTag) && i < originalTags.size()) {
+								targetTag.clone(originalTags.get(i));
+							}
+						}
+						if (i < originalTags.size()) {
+							sourceTag.clone(originalTags.get(i));
 						}
 					}
-					if (i < originalTags.size()) {
-						sourceTag.clone(originalTags.get(i));
-					}
-				}
 
-				tagsMap = new Hashtable<>();
-				String taggedSource = addHtmlTags(source, originalData);
+					HtmlRenderer renderer = new HtmlRenderer();
+					String taggedSource = renderer.addHtmlTags(source, originalData);
 
-				List<String[]> tags = XliffUtils.harvestTags(taggedSource);
-				for (int i = 0; i < tags.size(); i++) {
-					taggedSource = taggedSource.replace(tags.get(i)[1], "" + (char) (0xF300 + (i + 1)));
-				}
+					List<String[]> tags = XliffUtils.harvestTags(taggedSource);
+					for (int i = 0; i < tags.size(); i++) {
+						taggedSource = taggedSource.replace(tags.get(i)[1], "" + (char) (0xF300 + (i + 1)));
+					}
 
-				DifferenceTagger tagger = new DifferenceTagger(dummySource, taggedSource);
-				String tagged = tagger.getYDifferences();
-				for (int i = 0; i < tags.size(); i++) {
-					tagged = tagged.replace("" + (char) (0xF300 + (i + 1)), tags.get(i)[1]);
-				}
+					DifferenceTagger tagger = new DifferenceTagger(dummySource, taggedSource);
+					String tagged = tagger.getYDifferences();
+					for (int i = 0; i < tags.size(); i++) {
+						tagged = tagged.replace("" + (char) (0xF300 + (i + 1)), tags.get(i)[1]);
+					}
 
-				match.put("source", tagged);
-				match.put("target", addHtmlTags(target, originalData));
-				result.put(match);
+					match.put("source", tagged);
+					match.put("target", renderer.addHtmlTags(target, originalData));
+					result.put(match);
+				}
 			}
 		}
 		return result;
@@ -2535,7 +2554,8 @@ public class XliffStore {
 		recurseImporting(doc.getRootElement());
 	}
 
-	private void recurseImporting(Element e) throws SQLException {
+	private void recurseImporting(Element e)
+			throws SQLException, SAXException, IOException, ParserConfigurationException {
 		if ("file".equals(e.getName())) {
 			List<PI> comments = e.getPI("metadata");
 			currentFile = e.getAttributeValue("id");
@@ -3321,7 +3341,15 @@ public class XliffStore {
 		String file = json.getString("file");
 		String unit = json.getString("unit");
 		String segment = json.getString("segment");
-		String memory = json.getString("memory");
+		List<String> memories = new Vector<>();
+		if (json.has("memories")) {
+			JSONArray array = json.getJSONArray("memories");
+			for (int i = 0; i < array.length(); i++) {
+				memories.add(array.getString(i));
+			}
+		} else {
+			memories.add(json.getString("memory"));
+		}
 
 		String src = "";
 		String pure = "";
@@ -3335,12 +3363,16 @@ public class XliffStore {
 			}
 		}
 		Element original = XliffUtils.buildElement(src);
-		String memoryName = MemoriesHandler.getName(memory);
-		MemoriesHandler.open(memory);
-		ITmEngine engine = MemoriesHandler.getEngine(memory);
-		List<Match> matches = engine.searchTranslation(pure, srcLang, tgtLang, matchThreshold, caseSensitiveMatches);
+		List<FederatedSearch.Result> matches = FederatedSearch.searchTranslation(memories, pure, srcLang, tgtLang,
+				matchThreshold, caseSensitiveMatches);
+		Map<String, String> names = new Hashtable<>();
 		for (int i = 0; i < matches.size(); i++) {
-			Match m = matches.get(i);
+			String memory = matches.get(i).memory();
+			if (!names.containsKey(memory)) {
+				names.put(memory, MemoriesHandler.getName(memory));
+			}
+			String memoryName = names.get(memory);
+			Match m = matches.get(i).match();
 			XliffUtils.setTags(new JSONObject());
 			Element matchSource = XliffUtils.toXliff(segment, i, "source", m.getSource());
 			matchSource.setAttribute("xml:lang", srcLang);
@@ -3353,7 +3385,6 @@ public class XliffStore {
 					tags);
 			conn.commit();
 		}
-		MemoriesHandler.close(memory);
 		return getTaggedtMatches(json);
 	}
 
@@ -3514,7 +3545,7 @@ public class XliffStore {
 		}
 	}
 
-	public void unconfirmTranslations() throws SQLException {
+	public synchronized void unconfirmTranslations() throws SQLException {
 		stmt.execute("UPDATE segments SET state='initial' WHERE type='S' AND targetText='' AND translate='Y' ");
 		stmt.execute("UPDATE segments SET state='translated' WHERE type='S' AND targetText <> '' AND translate='Y' ");
 		conn.commit();
@@ -3597,7 +3628,7 @@ public class XliffStore {
 		}
 	}
 
-	public void confirmAllTranslations(String memory)
+	public synchronized void confirmAllTranslations(String memory)
 			throws SQLException, SAXException, IOException, ParserConfigurationException, URISyntaxException {
 		if (memory.equals(Constants.NONE)) {
 			stmt.execute("UPDATE segments SET state='final' WHERE type='S' AND targetText<>'' AND translate='Y' ");
@@ -3695,179 +3726,186 @@ public class XliffStore {
 		Map<String, JSONObject> map = new HashMap<>();
 		Map<String, Set<String>> filesMap = new HashMap<>();
 
-		String sql = "SELECT file, SUM(words), SUM(chars), COUNT(*) FROM segments WHERE type='S' GROUP BY file";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				String fileId = rs.getString(1);
-				JSONObject json = new JSONObject();
-				int words = rs.getInt(2);
-				int chars = rs.getInt(3);
-				int segments = rs.getInt(4);
-				json.put("file", fileId);
-				json.put("words", words);
-				json.put("chars", chars);
-				json.put("segments", segments);
-				map.put(fileId, json);
-			}
-		}
-
-		sql = "SELECT id, name FROM files";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				String id = rs.getString(1);
-				String name = rs.getString(2);
-				map.get(id).put("name", name);
-				if (filesMap.containsKey(name)) {
-					Set<String> ids = filesMap.get(name);
-					ids.add(id);
-					filesMap.put(name, ids);
-				} else {
-					Set<String> ids = new TreeSet<>();
-					ids.add(id);
-					filesMap.put(name, ids);
-				}
-			}
-		}
-
-		sql = "SELECT file, SUM(words), SUM(chars), COUNT(*) FROM segments WHERE type = 'S' AND targettext = '' GROUP BY file";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				String fileId = rs.getString(1);
-				int untranslated = rs.getInt(2);
-				int untranslatedChars = rs.getInt(3);
-				int untranslatedSegments = rs.getInt(4);
-				map.get(fileId).put("untranslated", untranslated);
-				map.get(fileId).put("untranslatedChars", untranslatedChars);
-				map.get(fileId).put("untranslatedSegments", untranslatedSegments);
-			}
-		}
-
-		sql = "SELECT file, SUM(words), SUM(chars), COUNT(*) FROM segments WHERE type = 'S' AND targettext <> '' GROUP BY file";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				String fileId = rs.getString(1);
-				int translated = rs.getInt(2);
-				int translatedChars = rs.getInt(3);
-				int translatedSegments = rs.getInt(4);
-				map.get(fileId).put("translated", translated);
-				map.get(fileId).put("translatedChars", translatedChars);
-				map.get(fileId).put("translatedSegments", translatedSegments);
-			}
-		}
-
-		sql = "SELECT file, SUM(words), SUM(chars), COUNT(*) FROM segments WHERE type = 'S' AND state = 'final' GROUP BY file";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				String fileId = rs.getString(1);
-				int confirmed = rs.getInt(2);
-				int confirmedChars = rs.getInt(3);
-				int confirmedSegments = rs.getInt(4);
-				map.get(fileId).put("confirmed", confirmed);
-				map.get(fileId).put("confirmedChars", confirmedChars);
-				map.get(fileId).put("confirmedSegments", confirmedSegments);
-			}
-		}
-
 		Map<String, JSONObject> statusMap = new HashMap<>();
 		Set<String> currentFileSegments = null;
 		Set<String> otherFileSegments = new TreeSet<>();
 
-		sql = "SELECT MAX(similarity) FROM matches WHERE file = ? AND unitid = ? AND segid = ?";
-		try (PreparedStatement st = conn.prepareStatement(sql)) {
-			String currentFileId = "";
-			JSONObject json = null;
-			sql = "SELECT file, unitid, segid, source, words,tags FROM segments WHERE type = 'S' ORDER BY file, unitid, segid";
-			try (ResultSet rs = stmt.executeQuery(sql)) {
-				while (rs.next()) {
-					String fileId = rs.getString(1);
-					String unitId = rs.getString(2);
-					String segId = rs.getString(3);
-					String source = rs.getString(4);
-					int words = rs.getInt(5);
-					int tags = rs.getInt(6);
-					if (!currentFileId.equals(fileId)) {
-						json = new JSONObject();
-						json.put("newSegments", 0);
-						json.put("100Segments", 0);
-						json.put("95Segments", 0);
-						json.put("85Segments", 0);
-						json.put("75Segments", 0);
-						json.put("50Segments", 0);
-						json.put("intRepSegment", 0);
-						json.put("extRepSegment", 0);
-						json.put("newWords", 0);
-						json.put("100Words", 0);
-						json.put("95Words", 0);
-						json.put("85Words", 0);
-						json.put("75Words", 0);
-						json.put("50Words", 0);
-						json.put("tags", 0);
-						json.put("intRep", 0);
-						json.put("extRep", 0);
-						statusMap.put(fileId, json);
-						currentFileId = fileId;
-						if (currentFileSegments != null) {
-							otherFileSegments.addAll(currentFileSegments);
-						}
-						currentFileSegments = new TreeSet<>();
-					}
-					json.put("tags", json.getInt("tags") + tags);
-					st.setString(1, fileId);
-					st.setString(2, unitId);
-					st.setString(3, segId);
-					int max = 0;
-					try (ResultSet rs2 = st.executeQuery()) {
-						while (rs2.next()) {
-							max = rs2.getInt(1);
-						}
+		Connection connection = takeReader();
+		synchronized (monitorOf(connection)) {
+			try (Statement query = connection.createStatement()) {
+				String sql = "SELECT file, SUM(words), SUM(chars), COUNT(*) FROM segments WHERE type='S' GROUP BY file";
+				try (ResultSet rs = query.executeQuery(sql)) {
+					while (rs.next()) {
+						String fileId = rs.getString(1);
+						JSONObject json = new JSONObject();
+						int words = rs.getInt(2);
+						int chars = rs.getInt(3);
+						int segments = rs.getInt(4);
+						json.put("file", fileId);
+						json.put("words", words);
+						json.put("chars", chars);
+						json.put("segments", segments);
+						map.put(fileId, json);
 					}
-					if (max < 50) {
-						if (currentFileSegments.contains(source)) {
-							json.put("intRepSegment", json.getInt("intRepSegment") + 1);
-							json.put("intRep", json.getInt("intRep") + words);
-						} else if (otherFileSegments.contains(source)) {
-							json.put("extRepSegment", json.getInt("extRepSegment") + 1);
-							json.put("extRep", json.getInt("extRep") + words);
+				}
+
+				sql = "SELECT id, name FROM files";
+				try (ResultSet rs = query.executeQuery(sql)) {
+					while (rs.next()) {
+						String id = rs.getString(1);
+						String name = rs.getString(2);
+						map.get(id).put("name", name);
+						if (filesMap.containsKey(name)) {
+							Set<String> ids = filesMap.get(name);
+							ids.add(id);
+							filesMap.put(name, ids);
 						} else {
-							json.put("newSegments", json.getInt("newSegments") + 1);
-							json.put("newWords", json.getInt("newWords") + words);
+							Set<String> ids = new TreeSet<>();
+							ids.add(id);
+							filesMap.put(name, ids);
 						}
 					}
-					currentFileSegments.add(source);
-					if (max == 100) {
-						json.put("100Segments", json.getInt("100Segments") + 1);
-						json.put("100Words", json.getInt("100Words") + words);
-					}
-					if (max >= 95 && max <= 99) {
-						json.put("95Segments", json.getInt("95Segments") + 1);
-						json.put("95Words", json.getInt("95Words") + words);
+				}
+
+				sql = "SELECT file, SUM(words), SUM(chars), COUNT(*) FROM segments WHERE type = 'S' AND targettext = '' GROUP BY file";
+				try (ResultSet rs = query.executeQuery(sql)) {
+					while (rs.next()) {
+						String fileId = rs.getString(1);
+						int untranslated = rs.getInt(2);
+						int untranslatedChars = rs.getInt(3);
+						int untranslatedSegments = rs.getInt(4);
+						map.get(fileId).put("untranslated", untranslated);
+						map.get(fileId).put("untranslatedChars", untranslatedChars);
+						map.get(fileId).put("untranslatedSegments", untranslatedSegments);
 					}
-					if (max >= 85 && max <= 94) {
-						json.put("85Segments", json.getInt("85Segments") + 1);
-						json.put("85Words", json.getInt("85Words") + words);
+				}
+
+				sql = "SELECT file, SUM(words), SUM(chars), COUNT(*) FROM segments WHERE type = 'S' AND targettext <> '' GROUP BY file";
+				try (ResultSet rs = query.executeQuery(sql)) {
+					while (rs.next()) {
+						String fileId = rs.getString(1);
+						int translated = rs.getInt(2);
+						int translatedChars = rs.getInt(3);
+						int translatedSegments = rs.getInt(4);
+						map.get(fileId).put("translated", translated);
+						map.get(fileId).put("translatedChars", translatedChars);
+						map.get(fileId).put("translatedSegments", translatedSegments);
 					}
-					if (max >= 75 && max <= 84) {
-						json.put("75Segments", json.getInt("75Segments") + 1);
-						json.put("75Words", json.getInt("75Words") + words);
+				}
+
+				sql = "SELECT file, SUM(words), SUM(chars), COUNT(*) FROM segments WHERE type = 'S' AND state = 'final' GROUP BY file";
+				try (ResultSet rs = query.executeQuery(sql)) {
+					while (rs.next()) {
+						String fileId = rs.getString(1);
+						int confirmed = rs.getInt(2);
+						int confirmedChars = rs.getInt(3);
+						int confirmedSegments = rs.getInt(4);
+						map.get(fileId).put("confirmed", confirmed);
+						map.get(fileId).put("confirmedChars", confirmedChars);
+						map.get(fileId).put("confirmedSegments", confirmedSegments);
 					}
-					if (max >= 50 && max <= 74) {
-						json.put("50Segments", json.getInt("50Segments") + 1);
-						json.put("50Words", json.getInt("50Words") + words);
+				}
+
+				sql = "SELECT MAX(similarity) FROM matches WHERE file = ? AND unitid = ? AND segid = ?";
+				try (PreparedStatement st = connection.prepareStatement(sql)) {
+					String currentFileId = "";
+					JSONObject json = null;
+					sql = "SELECT file, unitid, segid, source, words,tags FROM segments WHERE type = 'S' ORDER BY file, unitid, segid";
+					try (ResultSet rs = query.executeQuery(sql)) {
+						while (rs.next()) {
+							String fileId = rs.getString(1);
+							String unitId = rs.getString(2);
+							String segId = rs.getString(3);
+							String source = rs.getString(4);
+							int words = rs.getInt(5);
+							int tags = rs.getInt(6);
+							if (!currentFileId.equals(fileId)) {
+								json = new JSONObject();
+								json.put("newSegments", 0);
+								json.put("100Segments", 0);
+								json.put("95Segments", 0);
+								json.put("85Segments", 0);
+								json.put("75Segments", 0);
+								json.put("50Segments", 0);
+								json.put("intRepSegment", 0);
+								json.put("extRepSegment", 0);
+								json.put("newWords", 0);
+								json.put("100Words", 0);
+								json.put("95Words", 0);
+								json.put("85Words", 0);
+								json.put("75Words", 0);
+								json.put("50Words", 0);
+								json.put("tags", 0);
+								json.put("intRep", 0);
+								json.put("extRep", 0);
+								statusMap.put(fileId, json);
+								currentFileId = fileId;
+								if (currentFileSegments != null) {
+									otherFileSegments.addAll(currentFileSegments);
+								}
+								currentFileSegments = new TreeSet<>();
+							}
+							json.put("tags", json.getInt("tags") + tags);
+							st.setString(1, fileId);
+							st.setString(2, unitId);
+							st.setString(3, segId);
+							int max = 0;
+							try (ResultSet rs2 = st.executeQuery()) {
+								while (rs2.next()) {
+									max = rs2.getInt(1);
+								}
+							}
+							if (max < 50) {
+								if (currentFileSegments.contains(source)) {
+									json.put("intRepSegment", json.getInt("intRepSegment") + 1);
+									json.put("intRep", json.getInt("intRep") + words);
+								} else if (otherFileSegments.contains(source)) {
+									json.put("extRepSegment", json.getInt("extRepSegment") + 1);
+									json.put("extRep", json.getInt("extRep") + words);
+								} else {
+									json.put("newSegments", json.getInt("newSegments") + 1);
+									json.put("newWords", json.getInt("newWords") + words);
+								}
+							}
+							currentFileSegments.add(source);
+							if (max == 100) {
+								json.put("100Segments", json.getInt("100Segments") + 1);
+								json.put("100Words", json.getInt("100Words") + words);
+							}
+							if (max >= 95 && max <= 99) {
+								json.put("95Segments", json.getInt("95Segments") + 1);
+								json.put("95Words", json.getInt("95Words") + words);
+							}
+							if (max >= 85 && max <= 94) {
+								json.put("85Segments", json.getInt("85Segments") + 1);
+								json.put("85Words", json.getInt("85Words") + words);
+							}
+							if (max >= 75 && max <= 84) {
+								json.put("75Segments", json.getInt("75Segments") + 1);
+								json.put("75Words", json.getInt("75Words") + words);
+							}
+							if (max >= 50 && max <= 74) {
+								json.put("50Segments", json.getInt("50Segments") + 1);
+								json.put("50Words", json.getInt("50Words") + words);
+							}
+						}
 					}
 				}
-			}
-		}
 
-		sql = "SELECT file, SUM(words), SUM(chars), COUNT(*) FROM segments WHERE type = 'S' AND translate = 'N' GROUP BY file";
-		try (ResultSet rs = stmt.executeQuery(sql)) {
-			while (rs.next()) {
-				String fileId = rs.getString(1);
-				int locked = rs.getInt(2);
-				int lockedChars = rs.getInt(3);
-				int confirmedSegments = rs.getInt(4);
-				map.get(fileId).put("locked", locked);
-				map.get(fileId).put("lockedChars", lockedChars);
-				map.get(fileId).put("lockedSegments", confirmedSegments);
+				sql = "SELECT file, SUM(words), SUM(chars), COUNT(*) FROM segments WHERE type = 'S' AND translate = 'N' GROUP BY file";
+				try (ResultSet rs = query.executeQuery(sql)) {
+					while (rs.next()) {
+						String fileId = rs.getString(1);
+						int locked = rs.getInt(2);
+						int lockedChars = rs.getInt(3);
+						int confirmedSegments = rs.getInt(4);
+						map.get(fileId).put("locked", locked);
+						map.get(fileId).put("lockedChars", lockedChars);
+						map.get(fileId).put("lockedSegments", confirmedSegments);
+					}
+				}
+			} finally {
+				releaseReader(connection);
 			}
 		}
 
@@ -4354,7 +4392,7 @@ public class XliffStore {
 		queryBuilder.append("SELECT file, unitId, segId, target FROM segments WHERE type='S' AND ");
 		if (isRegExp) {
 			try {
-				Pattern.compile(searchText);
+				PatternCache.get(searchText);
 			} catch (PatternSyntaxException e) {
 				throw new IOException(Messages.getString("XliffStore.47"));
 			}
@@ -4501,7 +4539,7 @@ public class XliffStore {
 		}
 	}
 
-	public void removeMatches(String type) throws SQLException {
+	public synchronized void removeMatches(String type) throws SQLException {
 		try (PreparedStatement prep = conn.prepareStatement("DELETE FROM matches WHERE type=?")) {
 			prep.setString(1, type);
 			prep.execute();
@@ -4704,7 +4742,7 @@ public class XliffStore {
 		return result;
 	}
 
-	public void lockSegment(JSONObject json) throws SQLException {
+	public synchronized void lockSegment(JSONObject json) throws SQLException {
 		String sql = "SELECT translate FROM segments WHERE file=? AND unitId=? AND segId=?";
 		String segTranslate = "";
 		try (PreparedStatement st = conn.prepareStatement(sql)) {
@@ -4728,12 +4766,12 @@ public class XliffStore {
 		}
 	}
 
-	public void unlockAll() throws SQLException {
+	public synchronized void unlockAll() throws SQLException {
 		stmt.executeUpdate("UPDATE segments SET translate='Y' WHERE type='S' AND translate='N' ");
 		conn.commit();
 	}
 
-	public void lockDuplicates() throws SQLException, SAXException, IOException, ParserConfigurationException {
+	public synchronized void lockDuplicates() throws SQLException, SAXException, IOException, ParserConfigurationException {
 		String sql = "UPDATE segments SET translate='N' WHERE file=? AND unitId=? AND segId=?";
 		try (PreparedStatement lockStmt = conn.prepareStatement(sql)) {
 			Element currentSource = new Element("source");
@@ -4803,7 +4841,7 @@ public class XliffStore {
 		return result;
 	}
 
-	public void fixSpaces() throws SQLException, IOException, SAXException, ParserConfigurationException {
+	public synchronized void fixSpaces() throws SQLException, IOException, SAXException, ParserConfigurationException {
 		getPreferences();
 		String sql = "SELECT file, unitId, segId, child, source, target, targetText, translate FROM segments WHERE type='S' ORDER BY file, child ";
 		try (ResultSet rs = stmt.executeQuery(sql)) {
@@ -4845,6 +4883,7 @@ public class XliffStore {
 						fixStmt.setString(5, rs.getString(2));
 						fixStmt.setString(6, rs.getString(3));
 						fixStmt.executeUpdate();
+						segmentChanged(rs.getString(1), rs.getString(2), rs.getString(3));
 						conn.commit();
 					}
 				}
@@ -5209,15 +5248,15 @@ public class XliffStore {
 						box = SVG_LOCK;
 					}
 					String space = segPreserve ? "preserve" : "";
-					tagsMap = new Hashtable<>();
-					tag = 1;
+					HtmlRenderer renderer = new HtmlRenderer();
 
 					writeString(out, "<tr>\n");
 					writeString(out, "<td class=\"center " + border + "\"> " + count++ + "</td>\n");
 					writeString(out,
 							"<td class=\"text " + space + " " + border + "\"" + sourceDir + ">"
 									+ XliffUtils.highlightSpaces(
-											removeSvg(addHtmlTags(source, "", false, false, tagsData, segPreserve)))
+											removeSvg(renderer.addHtmlTags(source, "", false, false, tagsData,
+													segPreserve)))
 									+ "</td>\n");
 					writeString(out,
 							"<td class=\"center\"> " + (bestMatch > 0 ? bestMatch + "%" : "&nbsp;") + "</td>\n");
@@ -5225,7 +5264,8 @@ public class XliffStore {
 					writeString(out,
 							"<td class=\"text " + space + "\"" + targetDir + ">"
 									+ XliffUtils.highlightSpaces(
-											removeSvg(addHtmlTags(target, "", false, false, tagsData, segPreserve)))
+											removeSvg(renderer.addHtmlTags(target, "", false, false, tagsData,
+													segPreserve)))
 									+ "</td>\n");
 					writeString(out, "</tr>\n");
 				}
@@ -5268,7 +5308,7 @@ public class XliffStore {
 		return name.substring(0, name.indexOf('.'));
 	}
 
-	public void splitSegment(JSONObject json)
+	public synchronized void splitSegment(JSONObject json)
 			throws SQLException, SAXException, IOException, ParserConfigurationException {
 
 		currentFile = json.getString("file");
@@ -5450,6 +5490,12 @@ public class XliffStore {
 			prep.setString(2, unit);
 			prep.execute();
 		}
+		sql = "DELETE FROM rendered WHERE file=? AND unitId=?";
+		try (PreparedStatement prep = conn.prepareStatement(sql)) {
+			prep.setString(1, file);
+			prep.setString(2, unit);
+			prep.execute();
+		}
 	}
 
 	private void deleteSegment(String file, String unit, String segment) throws SQLException {
@@ -5476,9 +5522,14 @@ public class XliffStore {
 			prep.setString(3, segment);
 			prep.execute();
 		}
+
+		deleteRendered.setString(1, file);
+		deleteRendered.setString(2, unit);
+		deleteRendered.setString(3, segment);
+		deleteRendered.execute();
 	}
 
-	public void mergeSegment(JSONObject json)
+	public synchronized void mergeSegment(JSONObject json)
 			throws SAXException, IOException, ParserConfigurationException, SQLException {
 
 		currentFile = json.getString("file");
@@ -5732,7 +5783,7 @@ public class XliffStore {
 		return result;
 	}
 
-	public void setMTMatches(JSONObject json)
+	public synchronized void setMTMatches(JSONObject json)
 			throws SQLException, IOException, JSONException, SAXException, ParserConfigurationException {
 		String file = json.getString("file");
 		String unit = json.getString("unit");
@@ -5745,6 +5796,7 @@ public class XliffStore {
 			String origin = translation.getString("origin");
 			insertMatch("", file, unit, segment, origin, Constants.MT, 0, source, target, new JSONObject());
 		}
+		conn.commit();
 	}
 
 	public void updateProject(JSONObject json) throws SAXException, IOException, ParserConfigurationException {
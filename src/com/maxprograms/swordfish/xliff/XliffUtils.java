@@ -116,7 +116,7 @@ public class XliffUtils {
 		return Character.isWhitespace(c);
 	}
 
-	public static void checkSVG(int tag) throws IOException {
+	public static synchronized void checkSVG(int tag) throws IOException {
 		if (tag <= maxTag) {
 			return;
 		}
@@ -25,4 +25,5 @@ export interface Segment {
     hasMetadata: boolean;
     tagErrors: boolean;
     spaceErrors: boolean;
+    key?: string;
 }
@@ -97,6 +97,9 @@ export class TranslationView {
     currentPage: number = 0;
     rowsPage: number = 500;
     segmentsCount: number = 0;
+    // last row of the previous page, by page number
+    pageCursors: Map<number, any> = new Map<number, any>();
+    requestedPage: number = 0;
     statistics: HTMLDivElement;
 
     currentRow: HTMLTableRowElement | undefined;
@@ -375,6 +378,10 @@ export class TranslationView {
         });
         ipcRenderer.on('set-segments', (event: IpcRendererEvent, arg: any) => {
             if (arg.project === this.projectId) {
+                if (arg.segments.length > 0) {
+                    let last: Segment = arg.segments[arg.segments.length - 1];
+                    this.pageCursors.set(this.requestedPage + 1, { index: last.index, key: last.key });
+                }
                 this.setSegments(arg.segments);
             }
         });
@@ -983,6 +990,7 @@ export class TranslationView {
 
     setSegmentsCount(count: number): void {
         this.segmentsCount = count;
+        this.pageCursors.clear();
         this.maxPage = Math.ceil(this.segmentsCount / this.rowsPage);
         if (this.maxPage * this.rowsPage < this.segmentsCount) {
             this.maxPage++;
@@ -1013,6 +1021,10 @@ export class TranslationView {
             sortOption: this.sortOption,
             sortDesc: this.sortDesc
         };
+        this.requestedPage = this.currentPage;
+        if (this.pageCursors.has(this.currentPage)) {
+            params.after = this.pageCursors.get(this.currentPage);
+        }
         ipcRenderer.send('get-segments', params);
     }
 
@@ -1178,6 +1190,7 @@ export class TranslationView {
         rowsInput.value = '' + this.rowsPage;
         rowsInput.addEventListener('change', () => {
             this.rowsPage = Number.parseInt(rowsInput.value, 10);
+            this.pageCursors.clear();
             this.maxPage = Math.ceil(this.segmentsCount / this.rowsPage);
             if (this.maxPage * this.rowsPage < this.segmentsCount) {
                 this.maxPage++;
@@ -2747,6 +2760,7 @@ export class TranslationView {
         } else {
             this.sortButton.classList.add('active');
         }
+        this.pageCursors.clear();
         this.currentPage = 0;
         this.getSegments();
     }
@@ -2782,6 +2796,7 @@ export class TranslationView {
         } else {
             this.filterButton.classList.remove('active');
         }
+        this.pageCursors.clear();
         this.currentPage = 0;
         this.getSegments();
     }